@@ -0,0 +1,87 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AggregationService.aggregate end-to-end against the stub upstream, with fresh ids in every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+public class AggregationBenchmark {
+    @Param({"0", "20"})
+    public int upstreamLatencyMs;
+
+    @Param({"5", "50"})
+    public int idsPerApi;
+
+    @Param({"PLATFORM"})
+    public ExecutionMode executionMode;
+
+    private WireMockServer upstream;
+    private ExecutorService executor;
+    private AggregationService aggregationService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        upstream = StubUpstream.start(upstreamLatencyMs);
+        executor = executionMode.newExecutor("benchmark-");
+        final AggregationProperties properties = new AggregationProperties();
+        for (String api : new String[] {"shipments", "track", "pricing"}) {
+            // Partial batches would otherwise wait the default 5 seconds
+            properties.getApi(api).getBatch().setMaxLinger(Duration.ofMillis(10));
+        }
+        aggregationService = new AggregationService(executor, properties, new SimpleMeterRegistry(), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        aggregationService.close();
+        executor.shutdownNow();
+        upstream.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Ids {
+        private long next;
+
+        Set<String> next(final int count) {
+            final Set<String> ids = new HashSet<>();
+            final long thread = Thread.currentThread().getId();
+            for (int i = 0; i < count; i++) {
+                ids.add(thread + "-" + next++);
+            }
+            return ids;
+        }
+    }
+
+    @Benchmark
+    public Aggregation aggregate(final Ids ids) {
+        return aggregationService.aggregate(ids.next(idsPerApi), ids.next(idsPerApi), ids.next(idsPerApi));
+    }
+}
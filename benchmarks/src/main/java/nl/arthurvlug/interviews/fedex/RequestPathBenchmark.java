@@ -0,0 +1,110 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * The work of a single request whose ids are all cached: splitting the query parameters, assembling the aggregation
+ * and writing it as JSON. Run with -prof gc and look at gc.alloc.rate.norm for the bytes allocated per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RequestPathBenchmark {
+    @Param({"5", "50"})
+    public int idsPerApi;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ExecutorService executor;
+    private AggregationService aggregationService;
+    private String shipmentIds;
+    private String trackIds;
+    private String countryCodes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        shipmentIds = ids("");
+        trackIds = ids("");
+        countryCodes = ids("C");
+
+        final WireMockServer upstream = new WireMockServer(options().port(StubUpstream.port));
+        upstream.start();
+        stub(upstream, "shipments", shipmentIds, "[\"box\"]");
+        stub(upstream, "track", trackIds, "\"NEW\"");
+        stub(upstream, "pricing", countryCodes, "1.5");
+
+        executor = ExecutionMode.PLATFORM.newExecutor("benchmark-");
+        final AggregationProperties properties = new AggregationProperties();
+        for (String api : new String[] {"shipments", "track", "pricing"}) {
+            properties.getApi(api).getBatch().setMaxLinger(Duration.ofMillis(10));
+            properties.getApi(api).getCache().setMaxEntries(1000);
+            properties.getApi(api).getCache().setTtl(Duration.ofHours(1));
+        }
+        aggregationService = new AggregationService(executor, properties, new SimpleMeterRegistry(), null);
+        // Fills the caches, so the benchmark doesn't call the upstream anymore
+        aggregationService.aggregate(
+                AggregationController.splitString(shipmentIds),
+                AggregationController.splitString(trackIds),
+                AggregationController.splitString(countryCodes));
+        upstream.stop();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        aggregationService.close();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void request() throws IOException {
+        final Aggregation aggregation = aggregationService.aggregateAsync(
+                AggregationController.splitString(shipmentIds),
+                AggregationController.splitString(trackIds),
+                AggregationController.splitString(countryCodes)
+        ).join();
+        objectMapper.writeValue(OutputStream.nullOutputStream(), aggregation);
+    }
+
+    private String ids(final String prefix) {
+        return IntStream.range(0, idsPerApi)
+                .mapToObj(i -> prefix + i)
+                .collect(Collectors.joining(","));
+    }
+
+    private static void stub(final WireMockServer upstream, final String path, final String ids, final String value) {
+        final String body = AggregationController.splitString(ids).stream()
+                .map(id -> "\"" + id + "\":" + value)
+                .collect(Collectors.joining(",", "{", "}"));
+        upstream.stubFor(WireMock.get(WireMock.urlPathEqualTo("/" + path))
+                .willReturn(aResponse().withStatus(200).withBody(body)));
+    }
+}
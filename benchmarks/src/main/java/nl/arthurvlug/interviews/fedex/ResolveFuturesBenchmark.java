@@ -0,0 +1,70 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.arthurvlug.interviews.fedex.apiwrapper.ApiWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the completed futures of a section into the map of the response, before and after the compact sections.
+ * Run with -prof gc to see the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResolveFuturesBenchmark {
+    @Param({"5", "100"})
+    public int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Map<String, CompletableFuture<Optional<Float>>> futures;
+
+    @Setup
+    public void setUp() {
+        futures = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            futures.put("C" + i, CompletableFuture.completedFuture(i % 10 == 0 ? Optional.empty() : Optional.of((float) i)));
+        }
+    }
+
+    /**
+     * How the sections were built before: a map of Optionals, copied into a map with nulls.
+     */
+    @Benchmark
+    public Map<String, Float> resolveFuturesToNullableMap() {
+        final Map<String, Float> result = new HashMap<>();
+        for (Map.Entry<String, Optional<Float>> e : ApiWrapper.resolveFutures(futures).entrySet()) {
+            result.put(e.getKey(), e.getValue().orElse(null));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Map<String, Float> floatSectionMap() {
+        return FloatSectionMap.of(futures);
+    }
+
+    @Benchmark
+    public byte[] floatSectionMapToJson() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(FloatSectionMap.of(futures));
+    }
+}
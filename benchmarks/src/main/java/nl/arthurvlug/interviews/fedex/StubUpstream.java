@@ -0,0 +1,34 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * In-process stand-in for the shipments, track and pricing APIs on the port the API wrappers call.
+ * It answers every request with an empty object after a fixed delay, so the benchmarks measure the
+ * batching and not the parsing (see JsonParsingBenchmark for that).
+ */
+public class StubUpstream {
+    public static final int port = 8080;
+
+    public static WireMockServer start(final int latencyMs) {
+        final WireMockServer wireMockServer = new WireMockServer(options()
+                .port(port)
+                .containerThreads(200)
+                .disableRequestJournal());
+        wireMockServer.start();
+        for (String path : List.of("shipments", "track", "pricing")) {
+            wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/" + path))
+                    .willReturn(aResponse()
+                            .withStatus(200)
+                            .withBody("{}")
+                            .withFixedDelay(latencyMs)));
+        }
+        return wireMockServer;
+    }
+}
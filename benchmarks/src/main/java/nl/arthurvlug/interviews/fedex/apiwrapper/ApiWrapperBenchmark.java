@@ -0,0 +1,82 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.arthurvlug.interviews.fedex.AggregationService;
+import nl.arthurvlug.interviews.fedex.ExecutionMode;
+import nl.arthurvlug.interviews.fedex.StubUpstream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request threads calling futures() on the same wrapper and waiting for the results.
+ * A small key space makes requests share in-flight keys, a large one sends every key to the API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+public class ApiWrapperBenchmark {
+    @Param({"100", "10000000"})
+    public int keySpace;
+
+    @Param({"0"})
+    public int upstreamLatencyMs;
+
+    private WireMockServer upstream;
+    private ExecutorService executor;
+    private TrackApiWrapper apiWrapper;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        upstream = StubUpstream.start(upstreamLatencyMs);
+        executor = ExecutionMode.PLATFORM.newExecutor("benchmark-");
+        final ApiProperties properties = new ApiProperties();
+        properties.getBatch().setMaxLinger(Duration.ofMillis(10));
+        apiWrapper = new TrackApiWrapper(executor, properties, new SimpleMeterRegistry(), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        apiWrapper.close();
+        executor.shutdownNow();
+        upstream.stop();
+    }
+
+    @Benchmark
+    public Map<String, Optional<String>> futures() {
+        final Set<String> keys = new HashSet<>();
+        while (keys.size() < 5) {
+            keys.add(String.valueOf(ThreadLocalRandom.current().nextInt(keySpace)));
+        }
+        final Map<String, CompletableFuture<Optional<String>>> futures = apiWrapper.futures(keys);
+        AggregationService.allOf(List.copyOf(futures.values())).join();
+        return ApiWrapper.resolveFutures(futures);
+    }
+}
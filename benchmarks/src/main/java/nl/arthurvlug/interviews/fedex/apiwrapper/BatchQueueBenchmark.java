@@ -0,0 +1,56 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request threads adding keys to the same queue and claiming the full batches, without calling an API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+public class BatchQueueBenchmark {
+    @Param({"5", "50"})
+    public int batchSize;
+
+    private BatchQueue queue;
+
+    @Setup
+    public void setUp() {
+        queue = new BatchQueue(batchSize);
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final String prefix = Thread.currentThread().getId() + "-";
+        private long next;
+
+        List<String> next() {
+            return List.of(prefix + next++);
+        }
+    }
+
+    @Benchmark
+    public Set<String> addAndTakeFullBatch(final Keys keys) {
+        queue.addAll(keys.next());
+        return queue.takeFullBatch();
+    }
+}
@@ -0,0 +1,105 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.arthurvlug.interviews.fedex.ExecutionMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing an API response of every type and format, into a Map and as a stream. Run with -prof gc to compare the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonParsingBenchmark {
+    @Param({"shipments", "track", "pricing"})
+    public String api;
+
+    @Param({"5", "100"})
+    public int batchSize;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public String upstreamFormat;
+
+    private ExecutorService executor;
+    private ApiWrapper<?> apiWrapper;
+    private UpstreamFormat format;
+    private byte[] bytes;
+    private Set<String> keys;
+
+    @Setup
+    public void setUp() throws IOException {
+        executor = ExecutionMode.PLATFORM.newExecutor("benchmark-");
+        final Map<String, Object> response = new LinkedHashMap<>();
+        for (int i = 0; i < batchSize; i++) {
+            response.put(String.valueOf(100000000 + i), value(i));
+        }
+        format = UpstreamFormat.valueOf(upstreamFormat);
+        bytes = format.objectMapper.writeValueAsBytes(response);
+        keys = response.keySet();
+        apiWrapper = apiWrapper();
+    }
+
+    private ApiWrapper<?> apiWrapper() {
+        switch (api) {
+            case "shipments":
+                return new ShipmentApiWrapper(executor, new ApiProperties(), new SimpleMeterRegistry(), null);
+            case "track":
+                return new TrackApiWrapper(executor, new ApiProperties(), new SimpleMeterRegistry(), null);
+            default:
+                return new PricingApiWrapper(executor, new ApiProperties(), new SimpleMeterRegistry(), null);
+        }
+    }
+
+    private Object value(final int i) {
+        switch (api) {
+            case "shipments":
+                return List.of("box", "pallet", "envelope").subList(0, 1 + i % 3);
+            case "track":
+                return List.of("NEW", "IN TRANSIT", "COLLECTING", "COLLECTED", "DELIVERING", "DELIVERED").get(i % 6);
+            default:
+                return 10 + i * 0.25F;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        apiWrapper.close();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Object parseMap() {
+        return apiWrapper.parse(bytes, format);
+    }
+
+    @Benchmark
+    public Set<String> parseStream() throws IOException {
+        final Set<String> remaining = new HashSet<>(keys);
+        apiWrapper.parseStream(new ByteArrayInputStream(bytes), format, remaining);
+        return remaining;
+    }
+}
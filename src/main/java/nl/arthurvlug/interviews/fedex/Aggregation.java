@@ -1,22 +1,94 @@
 package nl.arthurvlug.interviews.fedex;
 
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 @EqualsAndHashCode
-@AllArgsConstructor
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 @Getter
 @ToString
+@JsonSerialize(using = Aggregation.Serializer.class)
 public class Aggregation {
     Map<String, List<String>> shipments;
     Map<String, String> track;
     Map<String, Float> pricing;
+    // The sections of the APIs that are only declared in the configuration, by the name of the API
+    Map<String, Map<String, Object>> sections = new LinkedHashMap<>();
+
+    public Aggregation(final Map<String, List<String>> shipments,
+                       final Map<String, String> track,
+                       final Map<String, Float> pricing) {
+        this(shipments, track, pricing, new LinkedHashMap<>());
+    }
+
+    public Aggregation(final Map<String, List<String>> shipments,
+                       final Map<String, String> track,
+                       final Map<String, Float> pricing,
+                       final Map<String, Map<String, Object>> sections) {
+        this.shipments = shipments;
+        this.track = track;
+        this.pricing = pricing;
+        this.sections = sections;
+    }
+
+    /**
+     * Whether every key has a value. Keys without one may be unknown to their API, but may also be missing
+     * because of a deadline, a failed call or an overloaded API.
+     */
+    public boolean isComplete() {
+        if (shipments.containsValue(null) || track.containsValue(null) || pricing.containsValue(null)) {
+            return false;
+        }
+        for (Map<String, Object> section : sections.values()) {
+            if (section.containsValue(null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @JsonAnyGetter
+    public Map<String, Map<String, Object>> getSections() {
+        return sections;
+    }
+
+    @JsonAnySetter
+    private void setSection(final String name, final Map<String, Object> section) {
+        sections.put(name, section);
+    }
+
+    /**
+     * Writes the sections with their own serializers, without introspecting the bean.
+     */
+    static class Serializer extends JsonSerializer<Aggregation> {
+        @Override
+        public void serialize(final Aggregation aggregation, final JsonGenerator gen, final SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            gen.writeFieldName("shipments");
+            provider.defaultSerializeValue(aggregation.shipments, gen);
+            gen.writeFieldName("track");
+            provider.defaultSerializeValue(aggregation.track, gen);
+            gen.writeFieldName("pricing");
+            provider.defaultSerializeValue(aggregation.pricing, gen);
+            for (Map.Entry<String, Map<String, Object>> section : aggregation.sections.entrySet()) {
+                gen.writeFieldName(section.getKey());
+                provider.defaultSerializeValue(section.getValue(), gen);
+            }
+            gen.writeEndObject();
+        }
+    }
 }
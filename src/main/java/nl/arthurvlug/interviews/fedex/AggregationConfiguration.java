@@ -0,0 +1,52 @@
+package nl.arthurvlug.interviews.fedex;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.arthurvlug.interviews.fedex.apiwrapper.BatchCoordinator;
+import nl.arthurvlug.interviews.fedex.apiwrapper.InProcessBatchCoordinator;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+
+import java.util.concurrent.ExecutorService;
+
+@Configuration
+@EnableConfigurationProperties(AggregationProperties.class)
+@ImportRuntimeHints(AggregationRuntimeHints.class)
+public class AggregationConfiguration {
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService aggregationExecutor(final AggregationProperties properties) {
+        return properties.getExecutionMode().newExecutor("aggregation-");
+    }
+
+    /**
+     * The properties are checked here instead of with conditions on the beans, since the AOT processing of the native
+     * build evaluates those conditions once at build time.
+     */
+    @Bean
+    public AggregationService aggregationService(final ExecutorService aggregationExecutor,
+                                                 final AggregationProperties properties,
+                                                 final MeterRegistry meterRegistry,
+                                                 final ObjectProvider<BatchCoordinator> coordinator) {
+        final BatchCoordinator batchCoordinator = coordinator.getIfAvailable(() ->
+                properties.getClusterCoordinator() == AggregationProperties.ClusterCoordinator.IN_PROCESS
+                        ? new InProcessBatchCoordinator()
+                        : null);
+        return new AggregationService(aggregationExecutor, properties, meterRegistry, batchCoordinator);
+    }
+
+    /**
+     * Lets Tomcat handle every request on its own virtual thread instead of its worker pool, in the virtual execution mode.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer(final AggregationProperties properties) {
+        return protocolHandler -> {
+            if (properties.getExecutionMode() == ExecutionMode.VIRTUAL) {
+                protocolHandler.setExecutor(ExecutionMode.VIRTUAL.newExecutor("tomcat-"));
+            }
+        };
+    }
+}
@@ -1,39 +1,362 @@
 package nl.arthurvlug.interviews.fedex;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Deadline;
+import nl.arthurvlug.interviews.fedex.apiwrapper.OverloadedException;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Priority;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.Nullable;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 @RestController
 public class AggregationController {
-    private final AggregationService aggregationService = new AggregationService();
+    private static final int bulkChunkSize = 256;
 
-    @GetMapping(value = "/aggregation", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Aggregation> aggregation(
+    private final AggregationService aggregationService;
+    private final ObjectMapper objectMapper;
+    // By format of /aggregation
+    private final Map<ResponseFormat, ObjectMapper> objectMappers = new EnumMap<>(ResponseFormat.class);
+    private final ExecutorService executor;
+    private final ResponseCache responseCache;
+    @Nullable
+    private final Duration defaultTimeout;
+
+    public AggregationController(final AggregationService aggregationService,
+                                 final ObjectMapper objectMapper,
+                                 final AggregationProperties properties,
+                                 final ExecutorService aggregationExecutor) {
+        this.aggregationService = aggregationService;
+        this.objectMapper = objectMapper;
+        for (ResponseFormat format : ResponseFormat.values()) {
+            objectMappers.put(format, format.objectMapper(objectMapper));
+        }
+        this.executor = aggregationExecutor;
+        this.responseCache = new ResponseCache(properties.getResponseCache());
+        this.defaultTimeout = properties.getDefaultTimeout();
+    }
+
+    /**
+     * Returns a future, so Spring MVC releases the servlet thread while the API calls are pending.
+     * The Accept header chooses between JSON, Smile and CBOR, see {@link ResponseFormat}.
+     * Every response has an ETag of its body, and a request whose If-None-Match has that tag gets 304 Not Modified.
+     * Responses in which every key has a value are kept for aggregation.response-cache.ttl, see {@link ResponseCache}.
+     */
+    @GetMapping(value = "/aggregation", produces = {MediaType.APPLICATION_JSON_VALUE, ResponseFormat.smileValue, MediaType.APPLICATION_CBOR_VALUE})
+    public CompletableFuture<ResponseEntity<byte[]>> aggregation(
             @Nullable @RequestParam(value = "shipments", required = false) String shipmentIds,
             @Nullable @RequestParam(value = "track", required = false) String trackIds,
-            @Nullable @RequestParam(value = "pricing", required = false) String countryCodes
+            @Nullable @RequestParam(value = "pricing", required = false) String countryCodes,
+            @Nullable @RequestParam(value = "timeout", required = false) Long timeoutMs,
+            @Nullable @RequestHeader(value = "X-Request-Timeout", required = false) Long timeoutHeaderMs,
+            @Nullable @RequestParam(value = "priority", required = false) String priority,
+            @Nullable @RequestHeader(value = "X-Request-Priority", required = false) String priorityHeader,
+            @Nullable @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @Nullable @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestParam Map<String, String> parameters
     ) {
-        final Aggregation aggregate = aggregationService.aggregate(
+        final ResponseFormat format = ResponseFormat.negotiate(accept);
+        final Set<String> shipments = splitString(shipmentIds);
+        final Set<String> track = splitString(trackIds);
+        final Set<String> pricing = splitString(countryCodes);
+        final Map<String, Set<String>> configuredIds = configuredIds(parameters);
+        final List<Object> cacheKey = responseCache.isEnabled() ? ResponseCache.key(format, shipments, track, pricing, configuredIds) : null;
+        if (cacheKey != null) {
+            final SerializedResponse cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(respond(cached, ifNoneMatch));
+            }
+        }
+        return aggregationService.aggregateAsync(
+                shipments,
+                track,
+                pricing,
+                configuredIds,
+                deadline(timeoutMs, timeoutHeaderMs),
+                priority(priority, priorityHeader)
+        ).thenApply(aggregation -> {
+            final SerializedResponse response = serialize(aggregation, format);
+            if (cacheKey != null && aggregation.isComplete()) {
+                responseCache.put(cacheKey, response);
+            }
+            return respond(response, ifNoneMatch);
+        });
+    }
+
+    private SerializedResponse serialize(final Aggregation aggregation, final ResponseFormat format) {
+        try {
+            return SerializedResponse.of(objectMappers.get(format).writeValueAsBytes(aggregation), format.mediaType);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ResponseEntity<byte[]> respond(final SerializedResponse response, @Nullable final String ifNoneMatch) {
+        if (ifNoneMatch != null && response.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(response.etag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .contentType(response.mediaType)
+                .eTag(response.etag)
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(response.body);
+    }
+
+    /**
+     * Writes every result as soon as it's available, as a line with a partial aggregation: {"shipments":{"555":["box"]}}
+     */
+    @GetMapping(value = "/aggregation/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseBodyEmitter aggregationNdjson(
+            @Nullable @RequestParam(value = "shipments", required = false) String shipmentIds,
+            @Nullable @RequestParam(value = "track", required = false) String trackIds,
+            @Nullable @RequestParam(value = "pricing", required = false) String countryCodes,
+            @Nullable @RequestParam(value = "timeout", required = false) Long timeoutMs,
+            @Nullable @RequestHeader(value = "X-Request-Timeout", required = false) Long timeoutHeaderMs,
+            @Nullable @RequestParam(value = "priority", required = false) String priority,
+            @Nullable @RequestHeader(value = "X-Request-Priority", required = false) String priorityHeader,
+            @RequestParam Map<String, String> parameters
+    ) {
+        final ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        aggregationService.aggregateEach(
                 splitString(shipmentIds),
                 splitString(trackIds),
-                splitString(countryCodes)
-        );
-        return ResponseEntity.ok(aggregate);
+                splitString(countryCodes),
+                configuredIds(parameters),
+                deadline(timeoutMs, timeoutHeaderMs),
+                priority(priority, priorityHeader),
+                // A single send per line, since results of different APIs are written from different threads
+                (section, key, value) -> send(() -> emitter.send(
+                        objectMapper.writeValueAsString(partialAggregation(section, key, value)) + "\n",
+                        MediaType.TEXT_PLAIN))
+        ).whenComplete((ignored, t) -> emitter.complete());
+        return emitter;
+    }
+
+    /**
+     * Sends every result as soon as it's available, as an event named after the API: event:shipments data:{"555":["box"]}
+     */
+    @GetMapping(value = "/aggregation/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter aggregationEvents(
+            @Nullable @RequestParam(value = "shipments", required = false) String shipmentIds,
+            @Nullable @RequestParam(value = "track", required = false) String trackIds,
+            @Nullable @RequestParam(value = "pricing", required = false) String countryCodes,
+            @Nullable @RequestParam(value = "timeout", required = false) Long timeoutMs,
+            @Nullable @RequestHeader(value = "X-Request-Timeout", required = false) Long timeoutHeaderMs,
+            @Nullable @RequestParam(value = "priority", required = false) String priority,
+            @Nullable @RequestHeader(value = "X-Request-Priority", required = false) String priorityHeader,
+            @RequestParam Map<String, String> parameters
+    ) {
+        final SseEmitter emitter = new SseEmitter();
+        aggregationService.aggregateEach(
+                splitString(shipmentIds),
+                splitString(trackIds),
+                splitString(countryCodes),
+                configuredIds(parameters),
+                deadline(timeoutMs, timeoutHeaderMs),
+                priority(priority, priorityHeader),
+                (section, key, value) -> send(() -> emitter.send(SseEmitter.event()
+                        .name(section)
+                        .data(Collections.singletonMap(key, value), MediaType.APPLICATION_JSON)))
+        ).whenComplete((ignored, t) -> emitter.complete());
+        return emitter;
+    }
+
+    /**
+     * For id sets that don't fit in a URL. The ids are read from the body while it comes in, and queued in chunks,
+     * so the first batches are sent before the whole body is read. See {@link BulkRequestReader} for the format.
+     * The results are written like /aggregation/stream. A body that can't be parsed ends the response with an error,
+     * after the results of the ids before the error.
+     */
+    @PostMapping(value = "/aggregation",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseBodyEmitter bulkAggregation(
+            final InputStream body,
+            @Nullable @RequestParam(value = "timeout", required = false) Long timeoutMs,
+            @Nullable @RequestHeader(value = "X-Request-Timeout", required = false) Long timeoutHeaderMs,
+            @Nullable @RequestParam(value = "priority", required = false) String priority,
+            @Nullable @RequestHeader(value = "X-Request-Priority", required = false) String priorityHeader
+    ) {
+        // A bulk request takes as long as the APIs need, unless it has a deadline
+        final ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L);
+        final BulkAggregation aggregation = aggregationService.bulkAggregation(
+                deadline(timeoutMs, timeoutHeaderMs),
+                priority(priority, priorityHeader),
+                (section, key, value) -> send(() -> emitter.send(
+                        objectMapper.writeValueAsString(partialAggregation(section, key, value)) + "\n",
+                        MediaType.TEXT_PLAIN)));
+        // Read on another thread, so the results are written while the body is read
+        executor.execute(() -> {
+            // The emitter never times out, so it's completed whatever fails: reading, the service or the serialization
+            Throwable failure = null;
+            try {
+                BulkRequestReader.read(objectMapper.getFactory(), body, bulkChunkSize, aggregation::add);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            final Throwable readFailure = failure;
+            try {
+                aggregation.finish().whenComplete((ignored, t) -> complete(emitter, readFailure != null ? readFailure : t));
+            } catch (Throwable t) {
+                complete(emitter, readFailure != null ? readFailure : t);
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * Hit, miss and eviction counts of the result caches, to help sizing them.
+     */
+    @GetMapping(value = "/aggregation/cache-statistics", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Map<String, Long>> cacheStatistics() {
+        return aggregationService.cacheStatistics();
+    }
+
+    /**
+     * Rejects the request fast while an API it needs is overloaded, instead of letting it wait behind the backlog.
+     */
+    @ExceptionHandler(OverloadedException.class)
+    ResponseEntity<Void> overloaded(final OverloadedException e) {
+        // Retry-After is in whole seconds
+        final long retryAfterSeconds = Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                .build();
+    }
+
+    /**
+     * The keys for the APIs that are only declared in the configuration, from the parameters named after them.
+     */
+    private Map<String, Set<String>> configuredIds(final Map<String, String> parameters) {
+        final Set<String> apis = aggregationService.configuredApis();
+        if (apis.isEmpty()) {
+            return Map.of();
+        }
+        final Map<String, Set<String>> ids = new HashMap<>();
+        for (String api : apis) {
+            final String keys = parameters.get(api);
+            if (keys != null) {
+                ids.put(api, splitString(keys));
+            }
+        }
+        return ids;
     }
 
-    private static Set<String> splitString(@Nullable final String commaSeparatedStrings) {
-        if(commaSeparatedStrings == null) {
+    /**
+     * The timeout in milliseconds from the timeout parameter, the X-Request-Timeout header or the configured default.
+     */
+    private Deadline deadline(@Nullable final Long timeoutMs, @Nullable final Long timeoutHeaderMs) {
+        if (timeoutMs != null) {
+            return Deadline.after(Duration.ofMillis(timeoutMs));
+        }
+        if (timeoutHeaderMs != null) {
+            return Deadline.after(Duration.ofMillis(timeoutHeaderMs));
+        }
+        return defaultTimeout == null ? Deadline.none() : Deadline.after(defaultTimeout);
+    }
+
+    /**
+     * The priority (high or normal) from the priority parameter or the X-Request-Priority header. Normal by default.
+     */
+    private static Priority priority(@Nullable final String priority, @Nullable final String priorityHeader) {
+        final String value = priority != null ? priority : priorityHeader;
+        if (value == null) {
+            return Priority.NORMAL;
+        }
+        try {
+            return Priority.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown priority: " + value);
+        }
+    }
+
+    private static Map<String, Map<String, Object>> partialAggregation(final String section,
+                                                                       final String key,
+                                                                       @Nullable final Object value) {
+        return Collections.singletonMap(section, Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Drops results that can't be written anymore because the client is gone.
+     * The emitter already completes itself after a failed send.
+     */
+    private static void complete(final ResponseBodyEmitter emitter, @Nullable final Throwable failure) {
+        if (failure == null) {
+            emitter.complete();
+        } else {
+            emitter.completeWithError(failure);
+        }
+    }
+
+    private static void send(final Send send) {
+        try {
+            send.send();
+        } catch (IOException | IllegalStateException e) {
+            // Client disconnected
+        }
+    }
+
+    @FunctionalInterface
+    private interface Send {
+        void send() throws IOException;
+    }
+
+    /**
+     * Scans the commas instead of going through a regex, an array and a stream. Empty ids are skipped.
+     * Package-private for the benchmarks.
+     */
+    static Set<String> splitString(@Nullable final String commaSeparatedStrings) {
+        if (commaSeparatedStrings == null || commaSeparatedStrings.isEmpty()) {
             return Set.of();
         }
-        return Arrays.stream(commaSeparatedStrings.split(","))
-                .collect(Collectors.toSet());
+        // Counted first, so the set never has to grow
+        int count = 1;
+        for (int i = 0; i < commaSeparatedStrings.length(); i++) {
+            if (commaSeparatedStrings.charAt(i) == ',') {
+                count++;
+            }
+        }
+        final Set<String> result = Sets.newHashSetWithExpectedSize(count);
+        int start = 0;
+        while (start <= commaSeparatedStrings.length()) {
+            int end = commaSeparatedStrings.indexOf(',', start);
+            if (end < 0) {
+                end = commaSeparatedStrings.length();
+            }
+            if (end > start) {
+                result.add(commaSeparatedStrings.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return result;
     }
 }
@@ -0,0 +1,15 @@
+package nl.arthurvlug.interviews.fedex;
+
+import javax.annotation.Nullable;
+
+/**
+ * Receives the result of a single key as soon as it's available.
+ */
+@FunctionalInterface
+public interface AggregationListener {
+    /**
+     * @param section the API the key belongs to: shipments, track or pricing
+     * @param value the result, or null if the API didn't return it
+     */
+    void onResult(String section, String key, @Nullable Object value);
+}
@@ -0,0 +1,66 @@
+package nl.arthurvlug.interviews.fedex;
+
+import lombok.Getter;
+import lombok.Setter;
+import nl.arthurvlug.interviews.fedex.apiwrapper.ApiProperties;
+import nl.arthurvlug.interviews.fedex.apiwrapper.BatchCoordinator;
+import nl.arthurvlug.interviews.fedex.apiwrapper.InProcessBatchCoordinator;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "aggregation")
+@Getter
+@Setter
+public class AggregationProperties {
+    /**
+     * Threads used for handling requests and for dispatching batches to the APIs.
+     */
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+    /**
+     * Time after which a request returns, with null for the values that are not available yet,
+     * when it doesn't pass a timeout itself. By default requests wait for all values.
+     */
+    @Nullable
+    private Duration defaultTimeout;
+
+    /**
+     * With in-process, the API wrappers batch through an {@link InProcessBatchCoordinator}. Other coordination backends
+     * are used by declaring a {@link BatchCoordinator} bean. By default every instance batches on its own.
+     */
+    private ClusterCoordinator clusterCoordinator = ClusterCoordinator.NONE;
+
+    /**
+     * Settings per API, by the name of its path, e.g. aggregation.apis.pricing.cache.ttl=1h
+     */
+    private Map<String, ApiProperties> apis = new HashMap<>();
+
+    private ResponseCache responseCache = new ResponseCache();
+
+    @Getter
+    @Setter
+    public static class ResponseCache {
+        /**
+         * How long a serialized response of /aggregation is served to requests for the same ids. 0 disables it.
+         */
+        private Duration ttl = Duration.ZERO;
+
+        private long maxEntries = 1000;
+    }
+
+    public enum ClusterCoordinator {
+        NONE,
+        IN_PROCESS
+    }
+
+    /**
+     * Adds the default settings for an API that isn't configured, so they can still be changed programmatically.
+     */
+    public ApiProperties getApi(final String name) {
+        return apis.computeIfAbsent(name, k -> new ApiProperties());
+    }
+}
@@ -0,0 +1,22 @@
+package nl.arthurvlug.interviews.fedex;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * Reflection hints for a native image, for the types that Jackson only sees at runtime. Spring derives the hints
+ * for the declared types of the controller and the configuration properties itself.
+ * Values of configured APIs are read into their configured value type, which needs hints of its own
+ * unless it's a JDK type like String, Integer or List.
+ */
+class AggregationRuntimeHints implements RuntimeHintsRegistrar {
+    @Override
+    public void registerHints(final RuntimeHints hints, final ClassLoader classLoader) {
+        // The sections are declared as Maps, so their own serializers are only found on the runtime type
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+                Aggregation.class,
+                SectionMap.class,
+                FloatSectionMap.class);
+    }
+}
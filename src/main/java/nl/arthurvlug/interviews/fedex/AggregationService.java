@@ -1,56 +1,233 @@
 package nl.arthurvlug.interviews.fedex;
 
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.arthurvlug.interviews.fedex.apiwrapper.ApiProperties;
+import nl.arthurvlug.interviews.fedex.apiwrapper.ApiWrapper;
+import nl.arthurvlug.interviews.fedex.apiwrapper.BatchCoordinator;
+import nl.arthurvlug.interviews.fedex.apiwrapper.ConfiguredApiWrapper;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Deadline;
+import nl.arthurvlug.interviews.fedex.apiwrapper.OverloadedException;
 import nl.arthurvlug.interviews.fedex.apiwrapper.PricingApiWrapper;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Priority;
 import nl.arthurvlug.interviews.fedex.apiwrapper.ShipmentApiWrapper;
 import nl.arthurvlug.interviews.fedex.apiwrapper.TrackApiWrapper;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
 
-import static nl.arthurvlug.interviews.fedex.apiwrapper.ApiWrapper.resolveFutures;
+public class AggregationService implements AutoCloseable {
+    private static final Set<String> builtInApis = ImmutableSet.of("shipments", "track", "pricing");
 
-public class AggregationService {
-    private final ShipmentApiWrapper shipmentApiWrapper = new ShipmentApiWrapper();
-    private final TrackApiWrapper trackApiWrapper = new TrackApiWrapper();
-    private final PricingApiWrapper pricingApiWrapper = new PricingApiWrapper();
+    private final ShipmentApiWrapper shipmentApiWrapper;
+    private final TrackApiWrapper trackApiWrapper;
+    private final PricingApiWrapper pricingApiWrapper;
+    // Every other API under aggregation.apis, by its name, which is also the name of its section and its parameter
+    private final Map<String, ConfiguredApiWrapper> configuredApiWrappers = new TreeMap<>();
+    // All wrappers by the name of their section
+    private final Map<String, ApiWrapper<?>> apiWrappers = new HashMap<>();
+
+    /**
+     * @param executor the executor on which the API wrappers dispatch their batches and notify their listeners
+     * @param coordinator shares the queues and results with the other instances, or null to batch per instance
+     */
+    public AggregationService(final ExecutorService executor,
+                              final AggregationProperties properties,
+                              final MeterRegistry meterRegistry,
+                              @Nullable final BatchCoordinator coordinator) {
+        shipmentApiWrapper = new ShipmentApiWrapper(executor, properties.getApi("shipments"), meterRegistry, coordinator);
+        trackApiWrapper = new TrackApiWrapper(executor, properties.getApi("track"), meterRegistry, coordinator);
+        pricingApiWrapper = new PricingApiWrapper(executor, properties.getApi("pricing"), meterRegistry, coordinator);
+        for (Map.Entry<String, ApiProperties> api : properties.getApis().entrySet()) {
+            if (!builtInApis.contains(api.getKey())) {
+                configuredApiWrappers.put(api.getKey(),
+                        new ConfiguredApiWrapper(api.getKey(), executor, api.getValue(), meterRegistry, coordinator));
+            }
+        }
+        apiWrappers.put("shipments", shipmentApiWrapper);
+        apiWrappers.put("track", trackApiWrapper);
+        apiWrappers.put("pricing", pricingApiWrapper);
+        apiWrappers.putAll(configuredApiWrappers);
+    }
+
+    /**
+     * The names of the APIs that are declared in the configuration, besides shipments, track and pricing.
+     */
+    public Set<String> configuredApis() {
+        return configuredApiWrappers.keySet();
+    }
 
     public Aggregation aggregate(
             final Set<String> shipmentIds,
             final Set<String> trackIds,
             final Set<String> countryCodes
     ) {
-        final Map<String, CompletableFuture<Optional<List<String>>>> shipmentFutures = shipmentApiWrapper.futures(shipmentIds);
-        final Map<String, CompletableFuture<Optional<String>>> trackFutures = trackApiWrapper.futures(trackIds);
-        final Map<String, CompletableFuture<Optional<Float>>> pricingFutures = pricingApiWrapper.futures(countryCodes);
+        return aggregateAsync(shipmentIds, trackIds, countryCodes).join();
+    }
 
-        final List<CompletableFuture<?>> futures = ImmutableList.<CompletableFuture<?>> builder()
-                .addAll(shipmentFutures.values())
-                .addAll(trackFutures.values())
-                .addAll(pricingFutures.values())
-                .build();
-        waitForAllFutures(futures);
+    public CompletableFuture<Aggregation> aggregateAsync(
+            final Set<String> shipmentIds,
+            final Set<String> trackIds,
+            final Set<String> countryCodes
+    ) {
+        return aggregateAsync(shipmentIds, trackIds, countryCodes, Deadline.none());
+    }
 
-        final Map<String, Optional<List<String>>> shipmentMap = resolveFutures(shipmentFutures);
-        final Map<String, Optional<String>> trackMap = resolveFutures(trackFutures);
-        final Map<String, Optional<Float>> pricingMap = resolveFutures(pricingFutures);
+    /**
+     * Same as {@link #aggregate(Set, Set, Set)}, but doesn't block the calling thread.
+     * The returned future completes on the thread that completes the last API future.
+     *
+     * @param deadline values that are not available by then are null in the aggregation
+     */
+    public CompletableFuture<Aggregation> aggregateAsync(
+            final Set<String> shipmentIds,
+            final Set<String> trackIds,
+            final Set<String> countryCodes,
+            final Deadline deadline
+    ) {
+        return aggregateAsync(shipmentIds, trackIds, countryCodes, Map.of(), deadline, Priority.NORMAL);
+    }
 
-        return new Aggregation(toNullableMap(shipmentMap), toNullableMap(trackMap), toNullableMap(pricingMap));
+    /**
+     * @param ids the keys for the configured APIs, by the name of the API. Names of unknown APIs are ignored.
+     * @param priority the lane in which the keys wait for their batches
+     */
+    public CompletableFuture<Aggregation> aggregateAsync(
+            final Set<String> shipmentIds,
+            final Set<String> trackIds,
+            final Set<String> countryCodes,
+            final Map<String, Set<String>> ids,
+            final Deadline deadline,
+            final Priority priority
+    ) {
+        final Map<String, Set<String>> configuredIds = configuredIds(ids);
+        checkAdmission(shipmentIds, trackIds, countryCodes, configuredIds);
+        final Map<String, Integer> sectionCounts = configuredIds.isEmpty() ? Map.of() : new TreeMap<>();
+        configuredIds.forEach((api, keys) -> sectionCounts.put(api, keys.size()));
+        final PendingAggregation aggregation = new PendingAggregation(shipmentIds.size(), trackIds.size(), countryCodes.size(), sectionCounts);
+        shipmentApiWrapper.futures(shipmentIds, deadline, priority, aggregation::addShipment);
+        trackApiWrapper.futures(trackIds, deadline, priority, aggregation::addTrack);
+        pricingApiWrapper.futures(countryCodes, deadline, priority, aggregation::addPricing);
+        configuredIds.forEach((api, keys) ->
+                configuredApiWrappers.get(api).futures(keys, deadline, priority, aggregation.sectionAdder(api)));
+        return aggregation.result();
     }
 
-    private <K, V> Map<K, V> toNullableMap(final Map<K, Optional<V>> map) {
-        final Map<K, V> result = new HashMap<>();
-        for(Map.Entry<K, Optional<V>> e : map.entrySet()) {
-            result.put(e.getKey(), e.getValue().orElse(null));
+    /**
+     * Passes every result to the listener as soon as its future completes, instead of collecting them in an Aggregation.
+     * The returned future completes after the last result was passed.
+     *
+     * @param deadline values that are not available by then are passed as null
+     */
+    public CompletableFuture<Void> aggregateEach(
+            final Set<String> shipmentIds,
+            final Set<String> trackIds,
+            final Set<String> countryCodes,
+            final Deadline deadline,
+            final AggregationListener listener
+    ) {
+        return aggregateEach(shipmentIds, trackIds, countryCodes, Map.of(), deadline, Priority.NORMAL, listener);
+    }
+
+    /**
+     * @param ids the keys for the configured APIs, by the name of the API. Names of unknown APIs are ignored.
+     * @param priority the lane in which the keys wait for their batches
+     */
+    public CompletableFuture<Void> aggregateEach(
+            final Set<String> shipmentIds,
+            final Set<String> trackIds,
+            final Set<String> countryCodes,
+            final Map<String, Set<String>> ids,
+            final Deadline deadline,
+            final Priority priority,
+            final AggregationListener listener
+    ) {
+        final Map<String, Set<String>> configuredIds = configuredIds(ids);
+        checkAdmission(shipmentIds, trackIds, countryCodes, configuredIds);
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+        shipmentApiWrapper.futures(shipmentIds, deadline, priority, notifyEach("shipments", listener, futures));
+        trackApiWrapper.futures(trackIds, deadline, priority, notifyEach("track", listener, futures));
+        pricingApiWrapper.futures(countryCodes, deadline, priority, notifyEach("pricing", listener, futures));
+        configuredIds.forEach((api, keys) ->
+                configuredApiWrappers.get(api).futures(keys, deadline, priority, notifyEach(api, listener, futures)));
+        return allOf(futures);
+    }
+
+    /**
+     * Checked for all APIs before any keys are queued, so a rejected request doesn't leave work behind.
+     * APIs that degrade instead complete the keys that they can't queue empty.
+     *
+     * @throws OverloadedException when an API with keys in the request is overloaded and rejects requests
+     */
+    private void checkAdmission(final Set<String> shipmentIds,
+                                final Set<String> trackIds,
+                                final Set<String> countryCodes,
+                                final Map<String, Set<String>> configuredIds) {
+        checkAdmission(shipmentApiWrapper, shipmentIds);
+        checkAdmission(trackApiWrapper, trackIds);
+        checkAdmission(pricingApiWrapper, countryCodes);
+        configuredIds.forEach((api, keys) -> checkAdmission(configuredApiWrappers.get(api), keys));
+    }
+
+    private static void checkAdmission(final ApiWrapper<?> apiWrapper, final Set<String> keys) {
+        if (!keys.isEmpty()) {
+            apiWrapper.checkAdmission();
+        }
+    }
+
+    private Map<String, Set<String>> configuredIds(final Map<String, Set<String>> ids) {
+        if (ids.isEmpty()) {
+            return Map.of();
         }
-        return result;
+        final Map<String, Set<String>> configuredIds = new TreeMap<>(ids);
+        configuredIds.keySet().retainAll(configuredApiWrappers.keySet());
+        return configuredIds;
+    }
+
+    /**
+     * Starts an aggregation to which the ids are added while they are read, see {@link BulkAggregation}.
+     */
+    public BulkAggregation bulkAggregation(final Deadline deadline,
+                                           final Priority priority,
+                                           final AggregationListener listener) {
+        return new BulkAggregation(apiWrappers, deadline, priority, listener);
+    }
+
+    private static <O> BiConsumer<String, CompletableFuture<Optional<O>>> notifyEach(final String section,
+                                                                                    final AggregationListener listener,
+                                                                                    final List<CompletableFuture<?>> futures) {
+        return (key, future) ->
+                futures.add(future.thenAccept(value -> listener.onResult(section, key, value.orElse(null))));
+    }
+
+    public Map<String, Map<String, Long>> cacheStatistics() {
+        final ImmutableMap.Builder<String, Map<String, Long>> statistics = ImmutableMap.<String, Map<String, Long>>builder()
+                .put("shipments", shipmentApiWrapper.cacheStatistics())
+                .put("track", trackApiWrapper.cacheStatistics())
+                .put("pricing", pricingApiWrapper.cacheStatistics());
+        configuredApiWrappers.forEach((api, apiWrapper) -> statistics.put(api, apiWrapper.cacheStatistics()));
+        return statistics.build();
+    }
+
+    @Override
+    public void close() {
+        shipmentApiWrapper.close();
+        trackApiWrapper.close();
+        pricingApiWrapper.close();
+        configuredApiWrappers.values().forEach(ConfiguredApiWrapper::close);
     }
 
-    public static void waitForAllFutures(List<CompletableFuture<?>> futures) {
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    public static CompletableFuture<Void> allOf(List<CompletableFuture<?>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
     }
 }
@@ -7,7 +7,11 @@ import org.springframework.context.ConfigurableApplicationContext;
 @SpringBootApplication
 public class Application {
     public static void main(String[] args) {
-        startApplication(args);
+        final ConfigurableApplicationContext context = startApplication(args);
+        // The training run of a class data sharing archive, which is written when the JVM exits
+        if (Boolean.getBoolean("aggregation.exit-after-startup")) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 
     public static ConfigurableApplicationContext startApplication(final String[] args) {
@@ -0,0 +1,91 @@
+package nl.arthurvlug.interviews.fedex;
+
+import nl.arthurvlug.interviews.fedex.apiwrapper.ApiWrapper;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Deadline;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Priority;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An aggregation whose ids are added while they are read, so the batches are sent while the rest of the ids come in.
+ * Every result is passed to the listener as soon as it's available, like {@link AggregationService#aggregateEach}.
+ */
+public class BulkAggregation {
+    private static final long capacityPollMillis = 10;
+
+    private final Map<String, ApiWrapper<?>> apiWrappers;
+    private final Deadline deadline;
+    private final Priority priority;
+    private final AggregationListener listener;
+    // The keys whose results weren't passed yet, plus one until finish is called
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    BulkAggregation(final Map<String, ApiWrapper<?>> apiWrappers,
+                    final Deadline deadline,
+                    final Priority priority,
+                    final AggregationListener listener) {
+        this.apiWrappers = apiWrappers;
+        this.deadline = deadline;
+        this.priority = priority;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues the ids in the wrapper of the section. Ids of an unknown section are ignored.
+     * While the wrapper is overloaded for bulk requests, this blocks until it has room again, or until the deadline,
+     * so a bulk request is slowed down to the throughput of the API instead of being shed. Bulk requests wait below
+     * the limits of interactive requests, see {@link ApiWrapper#isOverloadedForBulk()}.
+     */
+    public void add(final String section, final Set<String> ids) {
+        final ApiWrapper<?> apiWrapper = apiWrappers.get(section);
+        if (apiWrapper == null || ids.isEmpty()) {
+            return;
+        }
+        awaitCapacity(apiWrapper);
+        add(apiWrapper, section, ids);
+    }
+
+    /**
+     * To be called after the last ids are added.
+     *
+     * @return completes after the last result was passed to the listener
+     */
+    public CompletableFuture<Void> finish() {
+        resultPassed();
+        return result;
+    }
+
+    private <O> void add(final ApiWrapper<O> apiWrapper, final String section, final Set<String> ids) {
+        apiWrapper.futures(ids, deadline, priority, (key, future) -> {
+            pending.incrementAndGet();
+            future.whenComplete((value, t) -> {
+                try {
+                    listener.onResult(section, key, value == null ? null : value.orElse(null));
+                } finally {
+                    resultPassed();
+                }
+            });
+        });
+    }
+
+    private void awaitCapacity(final ApiWrapper<?> apiWrapper) {
+        try {
+            while (apiWrapper.isOverloadedForBulk() && !deadline.hasPassed()) {
+                TimeUnit.MILLISECONDS.sleep(capacityPollMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void resultPassed() {
+        if (pending.decrementAndGet() == 0) {
+            result.complete(null);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Reads the ids of a bulk request while they come in. The body is a JSON object, or a sequence of them (NDJSON),
+ * with an array of ids (or a single id) per section: {"shipments":["555","556"],"track":["555"],"pricing":["NL"]}.
+ * The ids are passed on per section in chunks, and at the end of every object, so they don't wait for the rest of the body.
+ */
+final class BulkRequestReader {
+    private BulkRequestReader() {
+    }
+
+    static void read(final JsonFactory jsonFactory,
+                     final InputStream body,
+                     final int chunkSize,
+                     final BiConsumer<String, Set<String>> chunkConsumer) throws IOException {
+        final Map<String, Set<String>> chunks = new HashMap<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IOException("Expected an object with ids per section, but got " + token);
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String section = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            addId(parser, section, chunks, chunkSize, chunkConsumer);
+                        }
+                    } else {
+                        addId(parser, section, chunks, chunkSize, chunkConsumer);
+                    }
+                }
+                flush(chunks, chunkConsumer);
+            }
+        }
+    }
+
+    private static void addId(final JsonParser parser,
+                              final String section,
+                              final Map<String, Set<String>> chunks,
+                              final int chunkSize,
+                              final BiConsumer<String, Set<String>> chunkConsumer) throws IOException {
+        if (!parser.currentToken().isScalarValue() || parser.currentToken() == JsonToken.VALUE_NULL) {
+            throw new IOException("Expected an id in " + section + ", but got " + parser.currentToken());
+        }
+        final Set<String> chunk = chunks.computeIfAbsent(section, k -> new HashSet<>());
+        chunk.add(parser.getText());
+        if (chunk.size() >= chunkSize) {
+            chunks.remove(section);
+            chunkConsumer.accept(section, chunk);
+        }
+    }
+
+    private static void flush(final Map<String, Set<String>> chunks, final BiConsumer<String, Set<String>> chunkConsumer) {
+        chunks.forEach(chunkConsumer);
+        chunks.clear();
+    }
+}
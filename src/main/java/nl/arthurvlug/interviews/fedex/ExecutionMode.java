@@ -0,0 +1,46 @@
+package nl.arthurvlug.interviews.fedex;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides on which kind of threads requests are handled and batches are dispatched.
+ */
+public enum ExecutionMode {
+    PLATFORM {
+        @Override
+        public ExecutorService newExecutor(final String threadNamePrefix) {
+            return Executors.newCachedThreadPool(daemonThreadFactory(threadNamePrefix));
+        }
+    },
+    VIRTUAL {
+        @Override
+        public ExecutorService newExecutor(final String threadNamePrefix) {
+            // Looked up reflectively, so the application still compiles and runs in platform mode on Java 17.
+            // The threads are named like the platform threads, so they can be told apart in thread dumps and profiles.
+            try {
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 0L);
+                final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, threadFactory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Execution mode VIRTUAL requires Java 21 or later", e);
+            }
+        }
+    };
+
+    public abstract ExecutorService newExecutor(final String threadNamePrefix);
+
+    public static ThreadFactory daemonThreadFactory(final String threadNamePrefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, threadNamePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Same as {@link SectionMap}, but keeps the values in a float array, so they are only boxed when they are read as a map.
+ */
+@JsonSerialize(using = FloatSectionMap.Serializer.class)
+public class FloatSectionMap extends AbstractMap<String, Float> {
+    private final String[] keys;
+    private final float[] values;
+    // Not a BitSet, since values of different keys are set from different threads
+    private final boolean[] missing;
+    private int addedKeys;
+
+    FloatSectionMap(final int size) {
+        this.keys = new String[size];
+        this.values = new float[size];
+        this.missing = new boolean[size];
+    }
+
+    /**
+     * @param futures futures that are all completed
+     */
+    public static FloatSectionMap of(final Map<String, CompletableFuture<Optional<Float>>> futures) {
+        final FloatSectionMap map = new FloatSectionMap(futures.size());
+        for (Map.Entry<String, CompletableFuture<Optional<Float>>> e : futures.entrySet()) {
+            map.setValue(map.addKey(e.getKey()), e.getValue().join());
+        }
+        return map;
+    }
+
+    /**
+     * Keys are added by a single thread, before the map is read.
+     *
+     * @return the index at which the value of the key is set
+     */
+    int addKey(final String key) {
+        keys[addedKeys] = key;
+        return addedKeys++;
+    }
+
+    /**
+     * Values of different keys can be set from different threads.
+     */
+    void setValue(final int index, final Optional<Float> value) {
+        if (value.isPresent()) {
+            values[index] = value.get();
+        } else {
+            missing[index] = true;
+        }
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public Float get(final Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return valueAt(i);
+            }
+        }
+        return null;
+    }
+
+    private Float valueAt(final int i) {
+        return missing[i] ? null : values[i];
+    }
+
+    @Override
+    public Set<Entry<String, Float>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Float>> iterator() {
+                return new Iterator<>() {
+                    private int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, Float> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final Entry<String, Float> entry = new SimpleImmutableEntry<>(keys[i], valueAt(i));
+                        i++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    static class Serializer extends JsonSerializer<FloatSectionMap> {
+        @Override
+        public void serialize(final FloatSectionMap map, final JsonGenerator gen, final SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            for (int i = 0; i < map.keys.length; i++) {
+                gen.writeFieldName(map.keys[i]);
+                if (map.missing[i]) {
+                    gen.writeNull();
+                } else {
+                    gen.writeNumber(map.values[i]);
+                }
+            }
+            gen.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package nl.arthurvlug.interviews.fedex;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * An aggregation whose sections are sized up front and filled in place by the callbacks of the futures of its keys.
+ * The result completes on the thread that completes the last future.
+ */
+class PendingAggregation {
+    private final SectionMap<List<String>> shipments;
+    private final SectionMap<String> track;
+    private final FloatSectionMap pricing;
+    private final Map<String, SectionMap<Object>> sections;
+    private final AtomicInteger remaining;
+    private final CompletableFuture<Aggregation> result = new CompletableFuture<>();
+
+    PendingAggregation(final int shipmentCount, final int trackCount, final int pricingCount) {
+        this(shipmentCount, trackCount, pricingCount, Map.of());
+    }
+
+    /**
+     * @param sectionCounts the number of keys per configured API, by the name of the API
+     */
+    PendingAggregation(final int shipmentCount,
+                       final int trackCount,
+                       final int pricingCount,
+                       final Map<String, Integer> sectionCounts) {
+        this.shipments = new SectionMap<>(shipmentCount);
+        this.track = new SectionMap<>(trackCount);
+        this.pricing = new FloatSectionMap(pricingCount);
+        this.sections = sectionCounts.isEmpty() ? Map.of() : new LinkedHashMap<>();
+        int count = shipmentCount + trackCount + pricingCount;
+        for (Map.Entry<String, Integer> sectionCount : sectionCounts.entrySet()) {
+            sections.put(sectionCount.getKey(), new SectionMap<>(sectionCount.getValue()));
+            count += sectionCount.getValue();
+        }
+        this.remaining = new AtomicInteger(count);
+        if (remaining.get() == 0) {
+            complete();
+        }
+    }
+
+    void addShipment(final String key, final CompletableFuture<Optional<List<String>>> future) {
+        final int index = shipments.addKey(key);
+        future.whenComplete((value, t) -> {
+            shipments.setValue(index, value == null ? null : value.orElse(null));
+            keyCompleted();
+        });
+    }
+
+    void addTrack(final String key, final CompletableFuture<Optional<String>> future) {
+        final int index = track.addKey(key);
+        future.whenComplete((value, t) -> {
+            track.setValue(index, value == null ? null : value.orElse(null));
+            keyCompleted();
+        });
+    }
+
+    void addPricing(final String key, final CompletableFuture<Optional<Float>> future) {
+        final int index = pricing.addKey(key);
+        future.whenComplete((value, t) -> {
+            pricing.setValue(index, value == null ? Optional.empty() : value);
+            keyCompleted();
+        });
+    }
+
+    /**
+     * The callback for the futures of a configured API, which must be one of the section counts.
+     */
+    BiConsumer<String, CompletableFuture<Optional<Object>>> sectionAdder(final String name) {
+        final SectionMap<Object> section = sections.get(name);
+        return (key, future) -> {
+            final int index = section.addKey(key);
+            future.whenComplete((value, t) -> {
+                section.setValue(index, value == null ? null : value.orElse(null));
+                keyCompleted();
+            });
+        };
+    }
+
+    CompletableFuture<Aggregation> result() {
+        return result;
+    }
+
+    // The decrement publishes the value that was set before it to the thread that completes the result
+    private void keyCompleted() {
+        if (remaining.decrementAndGet() == 0) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        result.complete(new Aggregation(shipments, track, pricing,
+                sections.isEmpty() ? Map.of() : new LinkedHashMap<>(sections)));
+    }
+}
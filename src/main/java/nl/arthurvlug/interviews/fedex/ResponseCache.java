@@ -0,0 +1,66 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps recently serialized responses of /aggregation for a short time, so repeated polls for the same ids
+ * don't go through the API wrappers and the JSON encoding again.
+ */
+class ResponseCache {
+    @Nullable
+    private final Cache<List<Object>, SerializedResponse> cache;
+
+    ResponseCache(final AggregationProperties.ResponseCache properties) {
+        if (properties.getMaxEntries() <= 0 || properties.getTtl().isZero()) {
+            this.cache = null;
+        } else {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumSize(properties.getMaxEntries())
+                    .expireAfterWrite(properties.getTtl())
+                    .build();
+        }
+    }
+
+    boolean isEnabled() {
+        return cache != null;
+    }
+
+    @Nullable
+    SerializedResponse get(final List<Object> key) {
+        return cache == null ? null : cache.getIfPresent(key);
+    }
+
+    void put(final List<Object> key, final SerializedResponse response) {
+        if (cache != null) {
+            cache.put(key, response);
+        }
+    }
+
+    /**
+     * The format and the ids of every section, sorted, so requests for the same ids share their response regardless of the order.
+     * The key is structured instead of joined into a string, since decoded ids can contain any separator.
+     */
+    static List<Object> key(final ResponseFormat format,
+                            final Set<String> shipmentIds,
+                            final Set<String> trackIds,
+                            final Set<String> countryCodes,
+                            final Map<String, Set<String>> configuredIds) {
+        final ImmutableSortedMap.Builder<String, Set<String>> configured = ImmutableSortedMap.naturalOrder();
+        configuredIds.forEach((api, ids) -> configured.put(api, ImmutableSortedSet.copyOf(ids)));
+        return ImmutableList.of(
+                format,
+                ImmutableSortedSet.copyOf(shipmentIds),
+                ImmutableSortedSet.copyOf(trackIds),
+                ImmutableSortedSet.copyOf(countryCodes),
+                configured.build());
+    }
+}
@@ -0,0 +1,61 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.MediaType;
+
+import javax.annotation.Nullable;
+
+/**
+ * The formats of /aggregation. Smile and CBOR carry the same aggregation as JSON, but in binary: floats are not
+ * written as decimal text, and repeated names and values (like the shipment types) are back-referenced in Smile.
+ */
+enum ResponseFormat {
+    JSON(MediaType.APPLICATION_JSON),
+    SMILE(new MediaType("application", "x-jackson-smile")),
+    CBOR(MediaType.APPLICATION_CBOR);
+
+    static final String smileValue = "application/x-jackson-smile";
+
+    final MediaType mediaType;
+
+    ResponseFormat(final MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @param jsonMapper the mapper of the application, whose configuration is kept for the binary formats
+     */
+    ObjectMapper objectMapper(final ObjectMapper jsonMapper) {
+        switch (this) {
+            case SMILE:
+                return jsonMapper.copyWith(new SmileFactory());
+            case CBOR:
+                return jsonMapper.copyWith(new CBORFactory());
+            default:
+                return jsonMapper;
+        }
+    }
+
+    /**
+     * @param accept the Accept header of the request
+     * @return the format with the highest quality in the header, JSON when there is a tie or no header
+     */
+    static ResponseFormat negotiate(@Nullable final String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        ResponseFormat best = JSON;
+        double bestQuality = -1;
+        for (ResponseFormat format : values()) {
+            for (MediaType acceptedType : MediaType.parseMediaTypes(accept)) {
+                if (acceptedType.includes(format.mediaType) && acceptedType.getQualityValue() > bestQuality) {
+                    best = format;
+                    bestQuality = acceptedType.getQualityValue();
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,124 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Read-only section of an aggregation, backed by an array of keys and an array of values, where a missing value is null.
+ *
+ * It is filled in place as the futures of its keys complete, and written straight to JSON, without copying the results
+ * into intermediate maps. Lookups scan the keys, which is fine for the small sections of a single request.
+ */
+@JsonSerialize(using = SectionMap.Serializer.class)
+public class SectionMap<V> extends AbstractMap<String, V> {
+    private final String[] keys;
+    private final Object[] values;
+    private int addedKeys;
+
+    SectionMap(final int size) {
+        this.keys = new String[size];
+        this.values = new Object[size];
+    }
+
+    /**
+     * @param futures futures that are all completed
+     */
+    public static <V> SectionMap<V> of(final Map<String, CompletableFuture<Optional<V>>> futures) {
+        final SectionMap<V> map = new SectionMap<>(futures.size());
+        for (Map.Entry<String, CompletableFuture<Optional<V>>> e : futures.entrySet()) {
+            map.setValue(map.addKey(e.getKey()), e.getValue().join().orElse(null));
+        }
+        return map;
+    }
+
+    /**
+     * Keys are added by a single thread, before the map is read.
+     *
+     * @return the index at which the value of the key is set
+     */
+    int addKey(final String key) {
+        keys[addedKeys] = key;
+        return addedKeys++;
+    }
+
+    /**
+     * Values of different keys can be set from different threads.
+     */
+    void setValue(final int index, @Nullable final V value) {
+        values[index] = value;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(final Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new Iterator<>() {
+                    private int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < keys.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<String, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final Entry<String, V> entry = new SimpleImmutableEntry<>(keys[i], (V) values[i]);
+                        i++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    static class Serializer extends JsonSerializer<SectionMap<?>> {
+        @Override
+        public void serialize(final SectionMap<?> map, final JsonGenerator gen, final SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            for (int i = 0; i < map.keys.length; i++) {
+                gen.writeFieldName(map.keys[i]);
+                provider.defaultSerializeValue(map.values[i], gen);
+            }
+            gen.writeEndObject();
+        }
+    }
+}
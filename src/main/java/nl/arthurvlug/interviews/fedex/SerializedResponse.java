@@ -0,0 +1,43 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.google.common.hash.Hashing;
+import org.springframework.http.MediaType;
+
+/**
+ * An aggregation in one of the {@link ResponseFormat}s, with its entity tag, which is a hash of the body.
+ * The same results give the same body, so repeated requests for unchanged results get the same tag.
+ */
+final class SerializedResponse {
+    final byte[] body;
+    final MediaType mediaType;
+    final String etag;
+
+    private SerializedResponse(final byte[] body, final MediaType mediaType, final String etag) {
+        this.body = body;
+        this.mediaType = mediaType;
+        this.etag = etag;
+    }
+
+    /**
+     * The tag is weak, since the same body may be sent gzipped or not. Tomcat doesn't compress responses with a strong tag.
+     */
+    static SerializedResponse of(final byte[] body, final MediaType mediaType) {
+        return new SerializedResponse(body, mediaType, "W/\"" + Hashing.murmur3_128().hashBytes(body) + "\"");
+    }
+
+    /**
+     * Compares weakly, like If-None-Match does.
+     *
+     * @param ifNoneMatch the If-None-Match header: a comma-separated list of tags, weak or not, or *
+     */
+    boolean matches(final String ifNoneMatch) {
+        final String opaqueTag = etag.substring(2);
+        for (String tag : ifNoneMatch.split(",")) {
+            final String trimmed = tag.trim();
+            if (trimmed.equals("*") || trimmed.equals(opaqueTag) || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
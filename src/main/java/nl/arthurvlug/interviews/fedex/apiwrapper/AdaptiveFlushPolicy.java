@@ -0,0 +1,84 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Waits only as long as waiting is expected to pay off.
+ *
+ * The budget is the latency target minus the average upstream latency (capped at the maximum linger time),
+ * so the oldest key in a batch gets its result around the latency target.
+ * If keys arrive fast enough to fill the batch within the budget, the whole budget is used as a backstop.
+ * If they arrive slowly, the linger time is shortened in proportion to how full the batch is expected to get,
+ * down to flushing immediately when no other key is expected within the budget.
+ */
+public class AdaptiveFlushPolicy implements FlushPolicy {
+    // Weight of the newest sample in the moving averages
+    private static final double alpha = 0.3;
+
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final long latencyTargetNanos;
+    private final Clock clock;
+
+    // Counted without the lock, since every request that queues keys records them
+    private final LongAdder queuedKeys = new LongAdder();
+    private long lastRateUpdate;
+    private double keysPerNano;
+    private double upstreamLatencyNanos;
+
+    public AdaptiveFlushPolicy(final int maxBatchSize, final Duration maxLinger, final Duration latencyTarget) {
+        this(maxBatchSize, maxLinger, latencyTarget, System::nanoTime);
+    }
+
+    AdaptiveFlushPolicy(final int maxBatchSize, final Duration maxLinger, final Duration latencyTarget, final Clock clock) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = maxLinger.toNanos();
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.clock = clock;
+        this.lastRateUpdate = clock.nanoTime();
+    }
+
+    @Override
+    public int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @Override
+    public synchronized Duration linger() {
+        updateRate();
+        final long budget = Math.max(0, Math.min(maxLingerNanos, latencyTargetNanos - (long) upstreamLatencyNanos));
+        if (maxBatchSize <= 1) {
+            return Duration.ZERO;
+        }
+        final double expectedKeys = keysPerNano * budget;
+        final double expectedFill = Math.min(1, expectedKeys / (maxBatchSize - 1));
+        return Duration.ofNanos((long) (budget * expectedFill));
+    }
+
+    @Override
+    public void recordKeysQueued(final int count) {
+        queuedKeys.add(count);
+    }
+
+    @Override
+    public synchronized void recordUpstreamLatency(final Duration latency) {
+        upstreamLatencyNanos = upstreamLatencyNanos == 0
+                ? latency.toNanos()
+                : alpha * latency.toNanos() + (1 - alpha) * upstreamLatencyNanos;
+    }
+
+    private void updateRate() {
+        final long now = clock.nanoTime();
+        final long elapsed = now - lastRateUpdate;
+        if (elapsed <= 0) {
+            return;
+        }
+        keysPerNano = alpha * ((double) queuedKeys.sumThenReset() / elapsed) + (1 - alpha) * keysPerNano;
+        lastRateUpdate = now;
+    }
+
+    interface Clock {
+        long nanoTime();
+    }
+}
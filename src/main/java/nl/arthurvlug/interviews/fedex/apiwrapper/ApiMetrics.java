@@ -0,0 +1,154 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Metrics of a single API wrapper, tagged with the path of the API.
+ */
+class ApiMetrics {
+    private final MeterRegistry meterRegistry;
+    private final Tags tags;
+
+    private final Counter cachedKeys;
+    private final Counter inFlightKeys;
+    private final Counter queuedKeys;
+    private final DistributionSummary batchSize;
+    private final Timer linger;
+    private final Timer successfulCalls;
+    private final Timer failedCalls;
+    private final Counter foundResults;
+    private final Counter missingResults;
+    private final Counter shortCircuitedKeys;
+    private final Counter hedgedCalls;
+    private final Counter deadlineMissedKeys;
+    private final Counter shedKeys;
+    private final Counter rejectedRequests;
+
+    ApiMetrics(final MeterRegistry meterRegistry, final String path) {
+        this.meterRegistry = meterRegistry;
+        this.tags = Tags.of("api", path);
+
+        this.cachedKeys = keysCounter("cache");
+        this.inFlightKeys = keysCounter("in-flight");
+        this.queuedKeys = keysCounter("queued");
+        this.batchSize = DistributionSummary.builder("aggregation.api.batch.size")
+                .description("Number of keys in the batches sent to the API")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.linger = Timer.builder("aggregation.api.linger")
+                .description("Time a key waited in the queue before its batch was sent")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.successfulCalls = callTimer("success");
+        this.failedCalls = callTimer("failure");
+        this.foundResults = resultsCounter("found");
+        this.missingResults = resultsCounter("missing");
+        this.shortCircuitedKeys = Counter.builder("aggregation.api.short.circuited")
+                .description("Keys that completed empty because the circuit breaker was open")
+                .tags(tags)
+                .register(meterRegistry);
+        this.deadlineMissedKeys = Counter.builder("aggregation.api.deadline.missed")
+                .description("Keys that completed empty for a caller because its deadline passed before the API answered")
+                .tags(tags)
+                .register(meterRegistry);
+        this.shedKeys = Counter.builder("aggregation.api.shed")
+                .description("Keys that completed empty because the wrapper was overloaded")
+                .tags(tags)
+                .register(meterRegistry);
+        this.rejectedRequests = Counter.builder("aggregation.api.rejected")
+                .description("Requests that were rejected because the wrapper was overloaded")
+                .tags(tags)
+                .register(meterRegistry);
+        this.hedgedCalls = Counter.builder("aggregation.api.hedged")
+                .description("Second copies of slow calls that were sent to the API")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    <T> void gauge(final String name, final String description, final T object, final ToDoubleFunction<T> value) {
+        Gauge.builder(name, object, value)
+                .description(description)
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    void keysFromCache(final int count) {
+        cachedKeys.increment(count);
+    }
+
+    void keysInFlight(final int count) {
+        inFlightKeys.increment(count);
+    }
+
+    void keysQueued(final int count) {
+        queuedKeys.increment(count);
+    }
+
+    void batchSent(final int size) {
+        batchSize.record(size);
+    }
+
+    void keyLingered(final long nanos) {
+        linger.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void apiCalled(final long nanos, final boolean successful) {
+        (successful ? successfulCalls : failedCalls).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void resultNotified(final boolean found) {
+        (found ? foundResults : missingResults).increment();
+    }
+
+    void keysShortCircuited(final int count) {
+        shortCircuitedKeys.increment(count);
+    }
+
+    void keysShed(final int count) {
+        shedKeys.increment(count);
+    }
+
+    void requestRejected() {
+        rejectedRequests.increment();
+    }
+
+    void callHedged() {
+        hedgedCalls.increment();
+    }
+
+    void deadlineMissed() {
+        deadlineMissedKeys.increment();
+    }
+
+    private Counter keysCounter(final String source) {
+        return Counter.builder("aggregation.api.keys")
+                .description("Keys requested from the wrapper, by where their result comes from")
+                .tags(tags.and("source", source))
+                .register(meterRegistry);
+    }
+
+    private Timer callTimer(final String outcome) {
+        return Timer.builder("aggregation.api.calls")
+                .description("Latency of the calls to the API")
+                .tags(tags.and("outcome", outcome))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Counter resultsCounter(final String result) {
+        return Counter.builder("aggregation.api.results")
+                .description("Results passed to the waiting requests, by whether the API returned a value")
+                .tags(tags.and("result", result))
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,213 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.annotation.Nullable;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Settings of a single API, configured under aggregation.apis.[name]. For shipments, track and pricing the name is
+ * the path without the slash. Any other name declares an API whose section and request parameter have that name.
+ */
+@Getter
+@Setter
+public class ApiProperties {
+    private Batch batch = new Batch();
+    private Cache cache = new Cache();
+    private Client client = new Client();
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private Hedge hedge = new Hedge();
+    private Admission admission = new Admission();
+
+    /**
+     * Path of an API that isn't built in. Defaults to the name of the API with a slash.
+     */
+    @Nullable
+    private String path;
+
+    /**
+     * Query parameter in which the keys of a batch are sent, comma-separated.
+     */
+    private String queryParameter = "q";
+
+    /**
+     * Type of the values of an API that isn't built in, as a canonical Java type,
+     * e.g. java.lang.Integer or java.util.List&lt;java.lang.String&gt;.
+     */
+    private String valueType = "java.lang.Object";
+
+    /**
+     * Parses the response while it comes in, and completes each key as soon as its value is parsed,
+     * instead of reading the whole response into a String and a Map first.
+     */
+    private boolean streamingResponse = false;
+
+    @Getter
+    @Setter
+    public static class Batch {
+        /**
+         * A batch is sent as soon as it has this many keys.
+         */
+        private int maxSize = 5;
+
+        /**
+         * How long the first key in the queue waits at most before the queue is flushed.
+         */
+        private Duration maxLinger = Duration.ofSeconds(5);
+
+        /**
+         * How long the queue waits at most after keys of a high priority request are queued. 0 flushes right away.
+         */
+        private Duration highPriorityLinger = Duration.ZERO;
+
+        /**
+         * How many batches can be sent to the API at the same time. Further batches wait in the queue.
+         */
+        private int maxInFlight = 32;
+
+        private Policy policy = Policy.FIXED;
+
+        /**
+         * Used by the adaptive policy: the time after which the oldest key in a batch should have its result.
+         */
+        private Duration latencyTarget = Duration.ofSeconds(1);
+
+        public enum Policy {
+            /**
+             * Always waits max-linger.
+             */
+            FIXED,
+            /**
+             * Waits shorter when the batch is not expected to fill up before the latency target, see {@link AdaptiveFlushPolicy}.
+             */
+            ADAPTIVE
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Cache {
+        /**
+         * Maximum number of results that are kept. 0 disables the cache.
+         */
+        private long maxEntries = 0;
+
+        /**
+         * How long a result is served from the cache after it was received from the API.
+         */
+        private Duration ttl = Duration.ZERO;
+
+        /**
+         * File to which the cached results are written periodically and at shutdown, and from which they are loaded
+         * at startup, so a restarted instance doesn't begin with an empty cache. Results keep their original expiry.
+         */
+        @Nullable
+        private Path snapshotFile;
+
+        private Duration snapshotInterval = Duration.ofMinutes(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Client {
+        /**
+         * Scheme, host and port of the API. The path of the API is appended to it.
+         */
+        private String baseUrl = "http://localhost:8080";
+
+        /**
+         * HTTP_2 multiplexes the batches over a single connection (h2c for plain http), and falls back to
+         * HTTP/1.1 with a pool of kept-alive connections when the API doesn't support it.
+         */
+        private HttpClient.Version version = HttpClient.Version.HTTP_2;
+
+        private Duration connectTimeout = Duration.ofSeconds(1);
+
+        /**
+         * A call that doesn't get a response within this time fails, and its keys complete empty.
+         */
+        private Duration readTimeout = Duration.ofMillis(300);
+
+        /**
+         * Asks the API for Smile or CBOR instead of JSON. Responses are parsed by their Content-Type either way.
+         */
+        private boolean binaryFormats = false;
+    }
+
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+        /**
+         * Number of consecutive failed calls (errors, timeouts and non-2xx responses) after which the circuit opens.
+         * 0 disables the circuit breaker.
+         */
+        private int failureThreshold = 5;
+
+        /**
+         * How long keys complete empty before a probe batch is sent to the API again.
+         */
+        private Duration openDuration = Duration.ofSeconds(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Hedge {
+        private boolean enabled = false;
+
+        /**
+         * A second copy of a call is sent when the call takes longer than this percentile of the recent calls.
+         */
+        private double percentile = 0.95;
+
+        /**
+         * Calls are never copied sooner than this, so a fast API isn't called twice for every small hiccup.
+         */
+        private Duration minDelay = Duration.ofMillis(20);
+
+        /**
+         * Number of recent calls the percentile is computed over.
+         */
+        private int windowSize = 256;
+    }
+
+    @Getter
+    @Setter
+    public static class Admission {
+        /**
+         * New keys are not queued anymore while this many keys wait in the queue. 0 disables the limit.
+         */
+        private int maxQueuedKeys = 10_000;
+
+        /**
+         * New keys are not queued anymore while this many keys are queued or in flight. 0 disables the limit.
+         */
+        private int maxPendingKeys = 50_000;
+
+        /**
+         * The share of both limits that bulk requests may fill. They wait above it, so the rest of the queue stays
+         * available to interactive requests while a large bulk request runs.
+         */
+        private double bulkShare = 0.5;
+
+        private Overload overload = Overload.DEGRADE;
+
+        /**
+         * Sent in the Retry-After header of rejected requests.
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        public enum Overload {
+            /**
+             * The request is answered with 503 Service Unavailable.
+             */
+            REJECT,
+            /**
+             * The keys that are not cached or in flight yet are null in the response.
+             */
+            DEGRADE
+        }
+    }
+}
@@ -1,157 +1,593 @@
 package nl.arthurvlug.interviews.fedex.apiwrapper;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Joiner;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 
 import javax.annotation.Nullable;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
-import static nl.arthurvlug.interviews.fedex.AggregationService.waitForAllFutures;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static nl.arthurvlug.interviews.fedex.ExecutionMode.daemonThreadFactory;
 
-public abstract class ApiWrapper<O> {
-    private static final String host = "http://localhost:8080";
-    private static final HttpClient httpClient = HttpClient.newHttpClient();
+@Slf4j
+public abstract class ApiWrapper<O> implements AutoCloseable {
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
-    private static final int queueCap = 5;
-    private static final int schedulingPeriod = 5; // In seconds
-    public static final Duration timeout = Duration.ofMillis(300);
+    private final String path;
+    private final String queryParameter;
+    private final FlushPolicy flushPolicy;
+    private final KeyQueue queue;
+    // A key is in this map while it's queued or in flight. All callers for that key share the same future.
+    private final Map<String, CompletableFuture<Optional<O>>> listeners = new ConcurrentHashMap<>();
+    private final AtomicReference<ScheduledFlush> scheduledFlush = new AtomicReference<>();
+    // Set when the timer fired, until the queue is empty. Then partial batches are sent as well.
+    private final AtomicBoolean flushDue = new AtomicBoolean();
+    private final AtomicInteger inFlightBatches = new AtomicInteger();
+    private final int maxInFlightBatches;
+    // Each wrapper has its own timer, so a slow flush of one API doesn't delay the flushes of the others
+    private final ScheduledThreadPoolExecutor scheduledExecutorService;
+    private final ExecutorService executor;
+    private final ResultCache<O> cache;
+    private final boolean streamingResponse;
+    private final ApiMetrics metrics;
+    private final UpstreamClient upstreamClient;
+    private final CircuitBreaker circuitBreaker;
+    private final HedgedRequests hedgedRequests;
+    private final JavaType valueType;
+    private final JavaType responseType;
+    // Shares the queue and the results with other instances, or null when batching per instance
+    @Nullable
+    private final BatchCoordinator coordinator;
+    private final long clusterResultTimeoutNanos;
+    // Used to flush early enough for the response to arrive before a deadline
+    private final LatencyWindow upstreamLatencies = new LatencyWindow(256);
+    private final long readTimeoutNanos;
+    private final long highPriorityLingerNanos;
+    private final int maxQueuedKeys;
+    private final int maxPendingKeys;
+    private final int maxBulkQueuedKeys;
+    private final int maxBulkPendingKeys;
+    private final boolean rejectWhenOverloaded;
+    private final Duration retryAfter;
 
-    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
-    private final Map<String, List<CompletableFuture<Optional<O>>>> listeners = new ConcurrentHashMap<>();
-    private ScheduledFuture<?> scheduledFuture;
-    private static final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
+    /**
+     * @param path the path of the API, which also names its metrics and its queue in the coordinator
+     * @param valueType the type of the values in the JSON object that the API returns
+     */
+    protected ApiWrapper(final String path,
+                         final JavaType valueType,
+                         final ExecutorService executor,
+                         final ApiProperties properties,
+                         final MeterRegistry meterRegistry,
+                         @Nullable final BatchCoordinator coordinator) {
+        this.path = path;
+        this.queryParameter = properties.getQueryParameter();
+        this.executor = executor;
+        this.coordinator = coordinator;
+        this.valueType = valueType;
+        this.responseType = objectMapper.getTypeFactory().constructMapType(Map.class, objectMapper.constructType(String.class), valueType);
+        this.metrics = new ApiMetrics(meterRegistry, getPath());
+        this.upstreamClient = new UpstreamClient(threadName(path), properties.getClient());
+        this.circuitBreaker = new CircuitBreaker(properties.getCircuitBreaker());
+        this.cache = new ResultCache<>(properties.getCache(), objectMapper, valueType);
+        this.streamingResponse = properties.isStreamingResponse();
+        this.flushPolicy = FlushPolicy.of(properties.getBatch());
+        this.queue = coordinator == null
+                ? new BatchQueue(flushPolicy.maxBatchSize(), metrics::keyLingered)
+                : new ClusterKeyQueue(coordinator, getPath(), flushPolicy.maxBatchSize());
+        // Longest time a key can wait for its batch to be sent and answered
+        this.readTimeoutNanos = properties.getClient().getReadTimeout().toNanos();
+        this.highPriorityLingerNanos = properties.getBatch().getHighPriorityLinger().toNanos();
+        this.maxQueuedKeys = properties.getAdmission().getMaxQueuedKeys();
+        this.maxPendingKeys = properties.getAdmission().getMaxPendingKeys();
+        this.maxBulkQueuedKeys = (int) (maxQueuedKeys * properties.getAdmission().getBulkShare());
+        this.maxBulkPendingKeys = (int) (maxPendingKeys * properties.getAdmission().getBulkShare());
+        this.rejectWhenOverloaded = properties.getAdmission().getOverload() == ApiProperties.Admission.Overload.REJECT;
+        this.retryAfter = properties.getAdmission().getRetryAfter();
+        this.clusterResultTimeoutNanos = properties.getBatch().getMaxLinger()
+                .plus(properties.getClient().getReadTimeout())
+                .plusSeconds(1)
+                .toNanos();
+        this.maxInFlightBatches = properties.getBatch().getMaxInFlight();
+        metrics.gauge("aggregation.api.queue.size", "Keys waiting in the queue", queue, KeyQueue::size);
+        metrics.gauge("aggregation.api.pending.keys", "Keys that are queued or in flight", listeners, Map::size);
+        metrics.gauge("aggregation.api.batches.in.flight", "Batches that are sent to the API and not completed yet", inFlightBatches, AtomicInteger::get);
+        metrics.gauge("aggregation.api.circuit.state", "0 when closed, 1 when open, 2 when half-open", circuitBreaker, c -> c.state().ordinal());
+        cache.bindMetrics(meterRegistry, getPath());
+        this.scheduledExecutorService = new ScheduledThreadPoolExecutor(1,
+                daemonThreadFactory("flush-" + threadName(path) + "-"));
+        this.scheduledExecutorService.setRemoveOnCancelPolicy(true);
+        this.hedgedRequests = new HedgedRequests(properties.getHedge(), scheduledExecutorService, metrics::callHedged);
+        cache.loadSnapshot(this::intern);
+        if (cache.hasSnapshot()) {
+            final long interval = properties.getCache().getSnapshotInterval().toNanos();
+            // Written on the executor, so the disk doesn't delay the flushes on the timer thread
+            scheduledExecutorService.scheduleWithFixedDelay(() -> executor.execute(cache::saveSnapshot), interval, interval, NANOSECONDS);
+        }
+        if (coordinator != null) {
+            coordinator.subscribe(getPath(), this::onPublishedResults);
+        }
+    }
 
-    public synchronized Map<String, CompletableFuture<Optional<O>>> futures(final Set<String> inputSet) {
+    public Map<String, CompletableFuture<Optional<O>>> futures(final Set<String> inputSet) {
         if (inputSet.isEmpty()) {
             return ImmutableMap.of();
         }
-        Map<String, CompletableFuture<Optional<O>>> futures = registerListeners(inputSet);
+        final Map<String, CompletableFuture<Optional<O>>> futures = new HashMap<>(inputSet.size() * 2);
+        futures(inputSet, Deadline.none(), futures::put);
+        return futures;
+    }
 
-        if (queue.isEmpty()) {
-            queue.addAll(inputSet);
-            resetSchedule();
-        } else {
-            queue.addAll(inputSet);
+    /**
+     * Same as {@link #futures(Set)}, but passes the future of every key to the consumer instead of collecting them in a map.
+     *
+     * With a deadline, the queue is flushed early enough for the API to answer before it, and the consumer gets
+     * copies of the shared futures that complete empty at the deadline when the API didn't answer yet.
+     */
+    public void futures(final Set<String> inputSet,
+                        final Deadline deadline,
+                        final BiConsumer<String, CompletableFuture<Optional<O>>> consumer) {
+        futures(inputSet, deadline, Priority.NORMAL, consumer);
+    }
+
+    /**
+     * Same as {@link #futures(Set, Deadline, BiConsumer)}, with the keys queued in the lane of the priority.
+     * High priority keys that were already queued by another request keep their place, but the queue is flushed sooner.
+     */
+    public void futures(final Set<String> inputSet,
+                        final Deadline deadline,
+                        final Priority priority,
+                        final BiConsumer<String, CompletableFuture<Optional<O>>> consumer) {
+        if (inputSet.isEmpty()) {
+            return;
+        }
+        if (circuitBreaker.isOpen()) {
+            shortCircuit(inputSet, consumer);
+            return;
+        }
+        final DeadlineCopies deadlineCopies = deadline.isNone() ? null : new DeadlineCopies(consumer);
+        if (isOverloaded()) {
+            shed(inputSet, deadlineCopies == null ? consumer : deadlineCopies);
+            if (deadlineCopies != null) {
+                deadlineCopies.expireAt(deadline);
+            }
+            return;
+        }
+        final List<String> newKeys = new ArrayList<>();
+        registerListeners(inputSet, newKeys, deadlineCopies == null ? consumer : deadlineCopies);
+        if (deadlineCopies != null) {
+            deadlineCopies.expireAt(deadline);
         }
 
-        if (queue.size() >= queueCap) {
-            getDataFromService(takeBatchFromQueue());
+        // Keys that are already queued or in flight are not queued again
+        metrics.keysQueued(newKeys.size());
+        if (!newKeys.isEmpty()) {
+            flushPolicy.recordKeysQueued(newKeys.size());
+            if (queue.addAll(newKeys, priority)) {
+                resetSchedule();
+            }
+            if (coordinator != null) {
+                expireLater(newKeys);
+            }
         }
-        return futures;
+        if (!deadline.isNone() && !queue.isEmpty()) {
+            flushBefore(deadline);
+        }
+        if (priority == Priority.HIGH && !queue.isEmpty()) {
+            scheduleFlush(System.nanoTime() + highPriorityLingerNanos);
+        }
+
+        dispatchBatches();
     }
 
-    private CompletableFuture<Optional<Map<String, O>>> getDataFromService(final Set<String> inputSet) {
-        return getFromService(getPath(), inputSet)
-                .thenApply(Optional::ofNullable)
-                .thenApply(response -> {
-                    notifyListeners(inputSet, response);
-                    if(!queue.isEmpty()) {
-                        resetSchedule();
-                    }
-                    return response;
-                });
+    /**
+     * Passes copies of the futures that are not completed yet to the consumer, and completes the copies empty
+     * at the deadline. The shared futures are left alone, since other callers may have a later deadline.
+     */
+    private class DeadlineCopies implements BiConsumer<String, CompletableFuture<Optional<O>>> {
+        private final BiConsumer<String, CompletableFuture<Optional<O>>> consumer;
+        private final List<CompletableFuture<Optional<O>>> copies = new ArrayList<>();
+
+        private DeadlineCopies(final BiConsumer<String, CompletableFuture<Optional<O>>> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void accept(final String key, final CompletableFuture<Optional<O>> future) {
+            if (future.isDone()) {
+                consumer.accept(key, future);
+                return;
+            }
+            final CompletableFuture<Optional<O>> copy = future.copy();
+            copies.add(copy);
+            consumer.accept(key, copy);
+        }
+
+        /**
+         * Called after all keys of the request were passed. The timer is cancelled as soon as all copies are completed,
+         * so it doesn't keep them until the deadline, and isn't scheduled at all when every future was already done.
+         */
+        private void expireAt(final Deadline deadline) {
+            if (copies.isEmpty()) {
+                return;
+            }
+            final ScheduledFuture<?> timer = scheduledExecutorService.schedule(
+                    () -> copies.forEach(ApiWrapper.this::expire), deadline.remainingNanos(), NANOSECONDS);
+            CompletableFuture.allOf(copies.toArray(new CompletableFuture[0])).whenComplete((ignored, t) -> timer.cancel(false));
+        }
     }
 
-    private Map<String, CompletableFuture<Optional<O>>> registerListeners(final Set<String> inputSet) {
-        return inputSet.stream()
-                .collect(Collectors.toMap(
-                        x -> x,
-                        x -> {
-                            if (!listeners.containsKey(x)) {
-                                listeners.put(x, new CopyOnWriteArrayList<>());
-                            }
-                            final CompletableFuture<Optional<O>> future = new CompletableFuture<>();
-                            listeners.get(x).add(future);
-                            return future;
-                        })
-                );
+    private void expire(final CompletableFuture<Optional<O>> copy) {
+        if (copy.complete(Optional.empty())) {
+            metrics.deadlineMissed();
+        }
+    }
+
+    /**
+     * Makes sure the queue is flushed when the API is expected to answer just in time for the deadline.
+     * Until there are latency measurements, the read timeout is used as the expected latency.
+     */
+    private void flushBefore(final Deadline deadline) {
+        final long expectedLatency = upstreamLatencies.size() == 0 ? readTimeoutNanos : upstreamLatencies.percentile(0.9);
+        scheduleFlush(deadline.atNanos() - expectedLatency);
+    }
+
+    /**
+     * @return whether the API answered successfully
+     */
+    private CompletableFuture<Boolean> getDataFromService(final Set<String> inputSet) {
+        if (!circuitBreaker.tryAcquire()) {
+            metrics.keysShortCircuited(inputSet.size());
+            notifyListeners(inputSet, Optional.empty());
+            return CompletableFuture.completedFuture(false);
+        }
+        final long startTime = System.nanoTime();
+        metrics.batchSent(inputSet.size());
+        final CompletableFuture<Boolean> result = streamingResponse
+                ? streamFromService(getPath(), inputSet)
+                : CompletableFuture.supplyAsync(() -> getFromService(getPath(), inputSet), executor)
+                        .thenCompose(response -> response)
+                        .thenApplyAsync(response -> {
+                            notifyListeners(inputSet, Optional.ofNullable(response));
+                            return response != null;
+                        }, executor);
+        return result.whenComplete((successful, t) -> {
+            final long latency = System.nanoTime() - startTime;
+            upstreamLatencies.record(latency);
+            circuitBreaker.record(Boolean.TRUE.equals(successful));
+            flushPolicy.recordUpstreamLatency(Duration.ofNanos(latency));
+            metrics.apiCalled(latency, Boolean.TRUE.equals(successful));
+        });
+    }
+
+    /**
+     * Serves the keys from the cache only, while the API is not called.
+     */
+    private void shortCircuit(final Set<String> inputSet, final BiConsumer<String, CompletableFuture<Optional<O>>> consumer) {
+        for (String key : inputSet) {
+            consumer.accept(key, CompletableFuture.completedFuture(Optional.ofNullable(cache.get(key))));
+        }
+        metrics.keysShortCircuited(inputSet.size());
+    }
+
+    /**
+     * Whether the queue or the pending keys reached their limit. The limits are checked before keys are added,
+     * so concurrent requests can exceed them by the size of their requests.
+     */
+    public boolean isOverloaded() {
+        return (maxQueuedKeys > 0 && queue.size() >= maxQueuedKeys)
+                || (maxPendingKeys > 0 && listeners.size() >= maxPendingKeys);
+    }
+
+    /**
+     * Whether a bulk request has to wait before it queues more keys. Bulk requests stop at admission.bulk-share
+     * of the limits, so they don't keep the queue at the limit at which interactive requests are shed.
+     */
+    public boolean isOverloadedForBulk() {
+        return (maxQueuedKeys > 0 && queue.size() >= maxBulkQueuedKeys)
+                || (maxPendingKeys > 0 && listeners.size() >= maxBulkPendingKeys);
+    }
+
+    /**
+     * Lets a request with keys for this API fail fast, before keys of any API are queued for it.
+     *
+     * @throws OverloadedException when the wrapper is overloaded and configured to reject requests
+     */
+    public void checkAdmission() {
+        if (rejectWhenOverloaded && isOverloaded()) {
+            metrics.requestRejected();
+            throw new OverloadedException(getPath(), retryAfter);
+        }
+    }
+
+    /**
+     * Serves cached keys and keys that are already pending, and completes the other keys empty without queueing them.
+     */
+    private void shed(final Set<String> inputSet, final BiConsumer<String, CompletableFuture<Optional<O>>> consumer) {
+        int shedKeys = 0;
+        for (String key : inputSet) {
+            final O cached = cache.get(key);
+            if (cached != null) {
+                consumer.accept(key, CompletableFuture.completedFuture(Optional.of(cached)));
+                continue;
+            }
+            final CompletableFuture<Optional<O>> pending = listeners.get(key);
+            if (pending != null) {
+                consumer.accept(key, pending);
+            } else {
+                consumer.accept(key, CompletableFuture.completedFuture(Optional.empty()));
+                shedKeys++;
+            }
+        }
+        metrics.keysShed(shedKeys);
+    }
+
+    /**
+     * @param newKeys receives the keys for which no future existed yet, and that still have to be queued
+     */
+    private void registerListeners(final Set<String> inputSet,
+                                   final List<String> newKeys,
+                                   final BiConsumer<String, CompletableFuture<Optional<O>>> consumer) {
+        int cachedKeys = 0;
+        for (String key : inputSet) {
+            final O cached = cache.get(key);
+            if (cached != null) {
+                consumer.accept(key, CompletableFuture.completedFuture(Optional.of(cached)));
+                cachedKeys++;
+                continue;
+            }
+            consumer.accept(key, listeners.computeIfAbsent(key, k -> {
+                newKeys.add(k);
+                return new CompletableFuture<>();
+            }));
+        }
+        metrics.keysFromCache(cachedKeys);
+        metrics.keysInFlight(inputSet.size() - cachedKeys - newKeys.size());
     }
 
     private void notifyListeners(
             final Set<String> inputSet,
             final Optional<Map<String, O>> optionalResponse
     ) {
-        inputSet.forEach(key -> {
-            final List<CompletableFuture<Optional<O>>> listenersForKey = listeners.get(key);
-            if (listenersForKey != null) {
-                final Optional<O> value = optionalResponse.map(response -> response.get(key));
-                listenersForKey.forEach(listener -> {
-                    listener.complete(value);
-                });
-                listeners.remove(key);
-            };
+        if (coordinator == null) {
+            inputSet.forEach(key -> notifyListener(key, optionalResponse.map(response -> intern(response.get(key)))));
+            return;
+        }
+        final Map<String, String> results = new HashMap<>();
+        inputSet.forEach(key -> results.put(key, toJson(key, optionalResponse.map(response -> response.get(key)))));
+        coordinator.publish(getPath(), results);
+    }
+
+    /**
+     * Passes the result of a key that this instance sent to the API to the listeners of this instance,
+     * or of every instance when the queue is shared.
+     */
+    private void deliver(final String key, final Optional<O> value) {
+        if (coordinator == null) {
+            notifyListener(key, value);
+        } else {
+            coordinator.publish(getPath(), Collections.singletonMap(key, toJson(key, value)));
+        }
+    }
+
+    private void onPublishedResults(final Map<String, String> results) {
+        results.forEach((key, json) -> notifyListener(key, fromJson(key, json).map(this::intern)));
+    }
+
+    /**
+     * Another instance may claim the keys and stop before it publishes their results,
+     * so keys that are still pending after the longest possible wait complete empty.
+     */
+    private void expireLater(final List<String> keys) {
+        final Map<String, CompletableFuture<Optional<O>>> futures = new HashMap<>();
+        keys.forEach(key -> {
+            final CompletableFuture<Optional<O>> future = listeners.get(key);
+            if (future != null) {
+                futures.put(key, future);
+            }
         });
+        scheduledExecutorService.schedule(() -> futures.forEach((key, future) -> {
+            if (listeners.remove(key, future)) {
+                future.complete(Optional.empty());
+            }
+        }), clusterResultTimeoutNanos, NANOSECONDS);
+    }
+
+    /**
+     * A value that can't be encoded is published as missing, so the other keys of the batch still get their values.
+     */
+    @Nullable
+    private String toJson(final String key, final Optional<O> value) {
+        try {
+            return value.isPresent() ? objectMapper.writeValueAsString(value.get()) : null;
+        } catch (Exception e) {
+            log.warn("Could not encode the value of {} for {}", key, getPath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Runs on the thread of the coordinator, so a value that can't be decoded completes only its own key empty,
+     * instead of failing the delivery of the other keys.
+     */
+    private Optional<O> fromJson(final String key, @Nullable final String json) {
+        try {
+            return json == null ? Optional.empty() : Optional.ofNullable(objectMapper.readValue(json, valueType));
+        } catch (Exception e) {
+            log.warn("Could not decode the published value of {} for {}", key, getPath(), e);
+            return Optional.empty();
+        }
+    }
+
+    private void notifyListener(final String key, final Optional<O> value) {
+        metrics.resultNotified(value.isPresent());
+        // Cached before the future is removed, so a caller that comes in after the removal gets a cache hit
+        cache.put(key, value.orElse(null));
+        // Removed before completing, so a caller that comes in after this gets a new future and queues the key again
+        final CompletableFuture<Optional<O>> listener = listeners.remove(key);
+        if (listener != null) {
+            listener.complete(value);
+        }
     }
 
     private CompletableFuture<Map<String, O>> getFromService(final String path, final Set<String> inputSet) {
-        return executeGetCall(path + "?q=" + joinItems(inputSet))
-                .thenApply(json -> parseJson(json, getTypeReference()))
+        return sendGetRequest(path + "?" + queryParameter + "=" + joinItems(inputSet), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> isSuccessful(response) ? parse(response.body(), UpstreamFormat.of(response)) : null)
                 .exceptionally(t -> null);
     }
 
-    private void resetSchedule() {
-        if (this.scheduledFuture != null) {
-            this.scheduledFuture.cancel(false);
+    /**
+     * Reads the response while it comes in, and completes the future of each key as soon as its value is parsed.
+     * Keys that are not in the response, or that weren't parsed yet when the call failed, complete empty.
+     */
+    private CompletableFuture<Boolean> streamFromService(final String path, final Set<String> inputSet) {
+        final Set<String> remaining = ConcurrentHashMap.newKeySet();
+        remaining.addAll(inputSet);
+        return CompletableFuture.supplyAsync(() -> sendGetRequest(path + "?" + queryParameter + "=" + joinItems(inputSet), HttpResponse.BodyHandlers.ofInputStream()), executor)
+                .thenCompose(response -> response)
+                // Reading the body blocks, so it's done on the executor instead of the HTTP client's threads
+                .thenApplyAsync(response -> {
+                    try (InputStream body = response.body()) {
+                        if (!isSuccessful(response)) {
+                            return false;
+                        }
+                        parseStream(body, UpstreamFormat.of(response), remaining);
+                        return true;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor)
+                .handle((successful, t) -> {
+                    remaining.forEach(key -> deliver(key, Optional.empty()));
+                    return t == null && successful;
+                });
+    }
+
+    // Package-private for the benchmarks
+    void parseStream(final InputStream body, final UpstreamFormat format, final Set<String> remaining) throws IOException {
+        final ObjectMapper objectMapper = format.objectMapper;
+        try (JsonParser parser = objectMapper.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String key = parser.getCurrentName();
+                parser.nextToken();
+                final O value = objectMapper.readValue(parser, valueType);
+                if (remaining.remove(key)) {
+                    deliver(key, Optional.ofNullable(intern(value)));
+                }
+            }
         }
-        this.scheduledFuture = scheduledExecutorService.scheduleWithFixedDelay(this::executeScheduledCall, schedulingPeriod, schedulingPeriod, SECONDS);
+    }
 
+    /**
+     * Only called when the queue goes from empty to non-empty. The timer then flushes everything that is
+     * in the queue, so keys that are left over after taking a full batch are covered by the pending timer.
+     * A pending flush that is due sooner, e.g. for a deadline, is kept.
+     */
+    private void resetSchedule() {
+        scheduleFlush(System.nanoTime() + flushPolicy.linger().toNanos());
     }
 
-    private void executeScheduledCall() {
-        if (queue.isEmpty()) {
-            return;
+    /**
+     * Keeps the earliest flush: a pending flush is only replaced by one that is due sooner, so a reschedule
+     * never postpones a flush that a deadline or a high priority request depends on.
+     */
+    private void scheduleFlush(final long atNanos) {
+        while (true) {
+            final ScheduledFlush current = scheduledFlush.get();
+            if (current != null && !current.future.isDone() && current.atNanos <= atNanos) {
+                return;
+            }
+            final ScheduledFlush next = new ScheduledFlush(
+                    scheduledExecutorService.schedule(this::executeScheduledCall, atNanos - System.nanoTime(), NANOSECONDS),
+                    atNanos);
+            if (scheduledFlush.compareAndSet(current, next)) {
+                if (current != null) {
+                    current.future.cancel(false);
+                }
+                return;
+            }
+            // Another thread scheduled a flush in the meantime, which is compared again
+            next.future.cancel(false);
         }
-        final List<CompletableFuture<?>> batches = new ArrayList<>();
-        do {
-            final Set<String> items = takeBatchFromQueue();
+    }
 
-            batches.add(this.getDataFromService(items));
-        } while (!queue.isEmpty());
-        waitForAllFutures(batches);
+    private void executeScheduledCall() {
+        flushDue.set(true);
+        dispatchBatches();
     }
 
-    private Set<String> takeBatchFromQueue() {
-        return Arrays.stream(new Integer[queueCap])
-                .map((i) -> {
-                    try {
-                        synchronized (queue) {
-                            if (queue.isEmpty()) {
-                                return null;
-                            }
-                            return queue.take();
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        throw new RuntimeException(e);
+    /**
+     * Sends as many batches as there are free in-flight slots: only full batches, or also the last partial batch
+     * when the flush is due. When all slots are taken, the keys stay in the queue until a batch completes.
+     */
+    private void dispatchBatches() {
+        while (tryAcquireBatchSlot()) {
+            final Set<String> batch = flushDue.get() ? queue.takeBatch() : queue.takeFullBatch();
+            if (batch == null) {
+                inFlightBatches.decrementAndGet();
+                if (queue.isEmpty()) {
+                    flushDue.set(false);
+                    // A timer that fired in the meantime must not lose its flush. Flushing new keys early is harmless.
+                    if (!queue.isEmpty()) {
+                        flushDue.set(true);
                     }
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+                }
+                return;
+            }
+            final CompletableFuture<Boolean> call = getDataFromService(batch);
+            if (call.isDone()) {
+                // Short-circuited batches complete right away. Looping instead of recursing keeps the stack flat.
+                inFlightBatches.decrementAndGet();
+                continue;
+            }
+            call.whenComplete((ignored, t) -> {
+                inFlightBatches.decrementAndGet();
+                dispatchBatches();
+            });
+        }
+    }
+
+    private boolean tryAcquireBatchSlot() {
+        int current;
+        do {
+            current = inFlightBatches.get();
+            if (current >= maxInFlightBatches) {
+                return false;
+            }
+        } while (!inFlightBatches.compareAndSet(current, current + 1));
+        return true;
     }
 
     public static <String, O> Map<String, Optional<O>> resolveFutures(final Map<String, CompletableFuture<Optional<O>>> futures) {
@@ -178,46 +614,72 @@ public abstract class ApiWrapper<O> {
         return Joiner.on(",").join(sorted);
     }
 
-    private @Nullable <T> T parseJson(@Nullable final String json,
-                                      final TypeReference<T> typeReference) {
+    /**
+     * Package-private for the benchmarks. The body is parsed from its bytes, so JSON isn't decoded into a String first.
+     *
+     * @return null when the body can't be parsed, so the keys of the batch complete empty like for a failed call
+     */
+    @Nullable
+    Map<String, O> parse(final byte[] body, final UpstreamFormat format) {
         try {
-            if (json == null) {
-                return null;
-            }
-            return objectMapper.readValue(json, typeReference);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+            return format.objectMapper.readValue(body, responseType);
+        } catch (IOException e) {
+            log.warn("Could not parse the response of {}", getPath(), e);
+            return null;
         }
     }
 
-    private CompletableFuture<String> executeGetCall(final String path) {
-        try {
-            System.out.println("Calling " + path);
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(new URI(host + path))
-                    .GET()
-                    .timeout(timeout)
-                    .build();
-            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                    .thenApply(this::handleBody);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+    private <T> CompletableFuture<HttpResponse<T>> sendGetRequest(final String path, final HttpResponse.BodyHandler<T> bodyHandler) {
+        return hedgedRequests.send(() -> upstreamClient.get(path, bodyHandler));
+    }
+
+    private static boolean isSuccessful(final HttpResponse<?> response) {
+        final int code = response.statusCode();
+        return code >= 200 && code < 300;
+    }
+
+    public Map<String, Long> cacheStatistics() {
+        final CacheStats stats = cache.stats();
+        return ImmutableMap.of(
+                "size", cache.size(),
+                "hits", stats.hitCount(),
+                "misses", stats.missCount(),
+                "evictions", stats.evictionCount()
+        );
+    }
+
+    @Override
+    public void close() {
+        scheduledExecutorService.shutdownNow();
+        upstreamClient.close();
+        cache.saveSnapshot();
+    }
+
+    private static class ScheduledFlush {
+        private final ScheduledFuture<?> future;
+        private final long atNanos;
+
+        private ScheduledFlush(final ScheduledFuture<?> future, final long atNanos) {
+            this.future = future;
+            this.atNanos = atNanos;
         }
     }
 
+    /**
+     * Lets a wrapper replace a parsed value by an equal instance that is shared, before the value is cached and passed on.
+     * Also called from the constructor for the values of the cache snapshot, so it can't use fields of the subclass.
+     */
     @Nullable
-    private String handleBody(final HttpResponse<String> t) {
-        final int code = t.statusCode();
-        if (code >= 200 && code < 300) {
-            return t.body();
-        } else {
-            return null;
-        }
+    protected O intern(@Nullable final O value) {
+        return value;
     }
 
-    protected abstract TypeReference<Map<String, O>> getTypeReference();
+    protected String getPath() {
+        return path;
+    }
 
-    protected abstract String getPath();
+    // The path without slashes, e.g. v1-stock for /v1/stock
+    private static String threadName(final String path) {
+        return path.replaceAll("^/+", "").replace('/', '-');
+    }
 }
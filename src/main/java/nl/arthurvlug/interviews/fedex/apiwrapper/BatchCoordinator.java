@@ -0,0 +1,44 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Shares the queues and the results of the API wrappers between the instances of the service, so batches
+ * fill up with the keys of all instances. APIs are identified by their path.
+ *
+ * A key is queued or claimed by at most one instance at a time. The instance that claims a batch calls the API
+ * and publishes the results, which every instance receives to complete its own waiting requests.
+ * {@link InProcessBatchCoordinator} is the implementation for a single JVM; a shared store with
+ * atomic claims and publish/subscribe (e.g. Redis) can implement it for a cluster.
+ */
+public interface BatchCoordinator {
+    /**
+     * Queues the keys that are not queued or claimed yet.
+     *
+     * @return true if the queue of the API was empty before
+     */
+    boolean enqueue(String api, Collection<String> keys);
+
+    /**
+     * Claims the oldest keys of the queue, so no other instance sends them.
+     *
+     * @return between minimumSize and maximumSize keys, or null if fewer than minimumSize keys are queued
+     */
+    @Nullable
+    Set<String> claim(String api, int minimumSize, int maximumSize);
+
+    int queueSize(String api);
+
+    /**
+     * Releases the claimed keys and passes their results to the subscribers of every instance.
+     *
+     * @param results the JSON of the value per key, or null when the API returned no value
+     */
+    void publish(String api, Map<String, String> results);
+
+    void subscribe(String api, Consumer<Map<String, String>> subscriber);
+}
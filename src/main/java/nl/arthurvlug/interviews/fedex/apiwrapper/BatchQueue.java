@@ -0,0 +1,119 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Lock-free queue of keys that are waiting to be sent to an API.
+ * Any thread can add keys, and any thread can claim a batch of keys.
+ * The size counter is only incremented after the keys are added to the queue, and batches are claimed by
+ * decrementing the counter before polling, so a thread that claimed N keys can always poll N keys.
+ * High priority keys have their own lane, which is polled first, so they go into the next batch.
+ */
+class BatchQueue implements KeyQueue {
+    private final Queue<QueuedKey> highPriority = new ConcurrentLinkedQueue<>();
+    private final Queue<QueuedKey> normalPriority = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int batchSize;
+    private final LongConsumer lingerListener;
+
+    BatchQueue(final int batchSize) {
+        this(batchSize, linger -> {});
+    }
+
+    /**
+     * @param lingerListener receives the time in nanoseconds that every key waited in the queue
+     */
+    BatchQueue(final int batchSize, final LongConsumer lingerListener) {
+        this.batchSize = batchSize;
+        this.lingerListener = lingerListener;
+    }
+
+    @Override
+    public boolean addAll(final Collection<String> keys, final Priority priority) {
+        final long now = System.nanoTime();
+        final Queue<QueuedKey> lane = priority == Priority.HIGH ? highPriority : normalPriority;
+        for (String key : keys) {
+            lane.add(new QueuedKey(key, now));
+        }
+        return size.getAndAdd(keys.size()) == 0;
+    }
+
+    @Nullable
+    @Override
+    public Set<String> takeFullBatch() {
+        return takeBatch(batchSize);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> takeBatch() {
+        return takeBatch(1);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Nullable
+    private Set<String> takeBatch(final int minimumSize) {
+        int claimed;
+        int current;
+        do {
+            current = size.get();
+            if (current < minimumSize) {
+                return null;
+            }
+            claimed = Math.min(current, batchSize);
+        } while (!size.compareAndSet(current, current - claimed));
+
+        final long now = System.nanoTime();
+        final Set<String> batch = new HashSet<>();
+        for (int i = 0; i < claimed; i++) {
+            final QueuedKey queuedKey = poll();
+            lingerListener.accept(now - queuedKey.queuedAt);
+            batch.add(queuedKey.key);
+        }
+        return batch;
+    }
+
+    /**
+     * Every claimed key is in one of the lanes, but another thread can poll it between the two polls here.
+     * The key that thread claimed is then still in a lane, so polling again finds one.
+     */
+    private QueuedKey poll() {
+        while (true) {
+            final QueuedKey high = highPriority.poll();
+            if (high != null) {
+                return high;
+            }
+            final QueuedKey normal = normalPriority.poll();
+            if (normal != null) {
+                return normal;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static class QueuedKey {
+        private final String key;
+        private final long queuedAt;
+
+        private QueuedKey(final String key, final long queuedAt) {
+            this.key = key;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The file format of a cache snapshot: a header with a magic number, the version and the number of entries, followed by
+ * the entries as [key length][key in UTF-8][expiry in epoch millis][value length][value]. All numbers are big-endian.
+ * Files are written and read through a memory mapping, so no intermediate streams or buffers are involved.
+ */
+final class CacheSnapshot {
+    private static final int magic = 0x41474353;
+    private static final int version = 1;
+    private static final int headerSize = 3 * Integer.BYTES;
+
+    private CacheSnapshot() {
+    }
+
+    static final class Entry {
+        final String key;
+        final long expiresAtMillis;
+        final byte[] value;
+
+        Entry(final String key, final long expiresAtMillis, final byte[] value) {
+            this.key = key;
+            this.expiresAtMillis = expiresAtMillis;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Writes to a file next to the snapshot first, and then moves it in place, so a crash never leaves half a snapshot.
+     */
+    static void write(final Path file, final List<Entry> entries) throws IOException {
+        final List<byte[]> keys = new ArrayList<>(entries.size());
+        long size = headerSize;
+        for (Entry entry : entries) {
+            final byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+            keys.add(key);
+            size += Integer.BYTES + key.length + Long.BYTES + Integer.BYTES + entry.value.length;
+        }
+        final Path absoluteFile = file.toAbsolutePath();
+        Files.createDirectories(absoluteFile.getParent());
+        final Path temporaryFile = absoluteFile.resolveSibling(absoluteFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(magic).putInt(version).putInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                final Entry entry = entries.get(i);
+                buffer.putInt(keys.get(i).length).put(keys.get(i));
+                buffer.putLong(entry.expiresAtMillis);
+                buffer.putInt(entry.value.length).put(entry.value);
+            }
+            buffer.force();
+        }
+        Files.move(temporaryFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the entries that don't expire before nowMillis, or nothing when there is no snapshot
+     * @throws IOException when the file can't be read, or isn't a snapshot of this version
+     */
+    static List<Entry> read(final Path file, final long nowMillis) throws IOException {
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < headerSize || buffer.getInt() != magic || buffer.getInt() != version) {
+                throw new IOException("Not a cache snapshot: " + file);
+            }
+            final int count = buffer.getInt();
+            final List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                final long expiresAtMillis = buffer.getLong();
+                final int valueLength = buffer.getInt();
+                if (expiresAtMillis <= nowMillis) {
+                    // Expired values are skipped without copying them
+                    buffer.position(buffer.position() + valueLength);
+                    continue;
+                }
+                final byte[] value = new byte[valueLength];
+                buffer.get(value);
+                entries.add(new Entry(new String(key, StandardCharsets.UTF_8), expiresAtMillis, value));
+            }
+            return entries;
+        } catch (RuntimeException e) {
+            // Buffer under- and overflows and negative lengths of a truncated or corrupt file
+            throw new IOException("Corrupt cache snapshot: " + file, e);
+        }
+    }
+}
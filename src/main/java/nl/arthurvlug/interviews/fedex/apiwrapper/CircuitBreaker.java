@@ -0,0 +1,75 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling an API after a number of consecutive failed calls.
+ *
+ * While open, keys complete empty without being queued. After the open duration a single probe batch is sent:
+ * when it succeeds the circuit closes again, when it fails the circuit stays open for another open duration.
+ */
+class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    CircuitBreaker(final ApiProperties.CircuitBreaker properties) {
+        this(properties.getFailureThreshold(), properties.getOpenDuration(), System::nanoTime);
+    }
+
+    CircuitBreaker(final int failureThreshold, final Duration openDuration, final LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether keys should complete empty instead of being queued
+     */
+    synchronized boolean isOpen() {
+        return state == State.OPEN && clock.getAsLong() - openedAt < openNanos;
+    }
+
+    /**
+     * @return whether a batch may be sent. Only one batch is let through as a probe once the open duration passed.
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // The probe is still in flight
+                return false;
+        }
+    }
+
+    synchronized void record(final boolean successful) {
+        if (successful) {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            return;
+        }
+        consecutiveFailures++;
+        if (failureThreshold > 0 && (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,48 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The queue of an API that is shared by all instances through the {@link BatchCoordinator}.
+ * The shared queue has a single lane, so high priority keys only differ in that they flush the queue sooner.
+ */
+class ClusterKeyQueue implements KeyQueue {
+    private final BatchCoordinator coordinator;
+    private final String api;
+    private final int batchSize;
+
+    ClusterKeyQueue(final BatchCoordinator coordinator, final String api, final int batchSize) {
+        this.coordinator = coordinator;
+        this.api = api;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean addAll(final Collection<String> keys, final Priority priority) {
+        return coordinator.enqueue(api, keys);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> takeFullBatch() {
+        return coordinator.claim(api, batchSize, batchSize);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> takeBatch() {
+        return coordinator.claim(api, 1, batchSize);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int size() {
+        return coordinator.queueSize(api);
+    }
+}
@@ -0,0 +1,27 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Wraps an API that is only declared in the configuration, by its path and the type of its values.
+ * Its values are passed on as Jackson reads them into the value type.
+ */
+public class ConfiguredApiWrapper extends ApiWrapper<Object> {
+    /**
+     * @param name the name under aggregation.apis, used as the path when no path is configured
+     * @throws IllegalArgumentException when the value type can't be parsed
+     */
+    public ConfiguredApiWrapper(final String name,
+                                final ExecutorService executor,
+                                final ApiProperties properties,
+                                final MeterRegistry meterRegistry,
+                                @Nullable final BatchCoordinator coordinator) {
+        super(properties.getPath() == null ? "/" + name : properties.getPath(),
+                TypeFactory.defaultInstance().constructFromCanonical(properties.getValueType()),
+                executor, properties, meterRegistry, coordinator);
+    }
+}
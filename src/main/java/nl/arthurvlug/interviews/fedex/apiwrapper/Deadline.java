@@ -0,0 +1,43 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import java.time.Duration;
+
+/**
+ * The moment by which a caller needs its results, on the {@link System#nanoTime()} clock.
+ */
+public final class Deadline {
+    private static final Deadline none = new Deadline(Long.MAX_VALUE);
+
+    private final long atNanos;
+
+    private Deadline(final long atNanos) {
+        this.atNanos = atNanos;
+    }
+
+    public static Deadline none() {
+        return none;
+    }
+
+    public static Deadline after(final Duration timeout) {
+        final long now = System.nanoTime();
+        final long timeoutNanos = timeout.toNanos();
+        // Saturates instead of overflowing for very long timeouts
+        return timeoutNanos >= Long.MAX_VALUE - now ? none : new Deadline(now + timeoutNanos);
+    }
+
+    public boolean isNone() {
+        return atNanos == Long.MAX_VALUE;
+    }
+
+    public boolean hasPassed() {
+        return !isNone() && remainingNanos() <= 0;
+    }
+
+    long atNanos() {
+        return atNanos;
+    }
+
+    long remainingNanos() {
+        return atNanos - System.nanoTime();
+    }
+}
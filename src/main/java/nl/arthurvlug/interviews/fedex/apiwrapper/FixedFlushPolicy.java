@@ -0,0 +1,26 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import java.time.Duration;
+
+/**
+ * Always waits the maximum linger time.
+ */
+public class FixedFlushPolicy implements FlushPolicy {
+    private final int maxBatchSize;
+    private final Duration maxLinger;
+
+    public FixedFlushPolicy(final int maxBatchSize, final Duration maxLinger) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxLinger = maxLinger;
+    }
+
+    @Override
+    public int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @Override
+    public Duration linger() {
+        return maxLinger;
+    }
+}
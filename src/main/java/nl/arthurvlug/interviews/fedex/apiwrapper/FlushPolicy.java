@@ -0,0 +1,32 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import java.time.Duration;
+
+/**
+ * Decides how many keys go in a batch, and how long the first key in the queue may wait for a batch to fill up.
+ */
+public interface FlushPolicy {
+    int maxBatchSize();
+
+    /**
+     * Called when the queue goes from empty to non-empty.
+     * @return how long to wait before flushing the queue
+     */
+    Duration linger();
+
+    default void recordKeysQueued(final int count) {
+    }
+
+    default void recordUpstreamLatency(final Duration latency) {
+    }
+
+    static FlushPolicy of(final ApiProperties.Batch properties) {
+        switch (properties.getPolicy()) {
+            case ADAPTIVE:
+                return new AdaptiveFlushPolicy(properties.getMaxSize(), properties.getMaxLinger(), properties.getLatencyTarget());
+            case FIXED:
+            default:
+                return new FixedFlushPolicy(properties.getMaxSize(), properties.getMaxLinger());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Sends a second copy of a call when the first one takes longer than most calls do, and uses whichever
+ * response comes first. The other call is cancelled.
+ *
+ * No copies are sent until enough latencies were measured to know what is slow.
+ */
+@Slf4j
+class HedgedRequests {
+    private static final int minSamples = 20;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final LatencyWindow latencies;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable onHedge;
+
+    HedgedRequests(final ApiProperties.Hedge properties, final ScheduledExecutorService scheduler, final Runnable onHedge) {
+        this.enabled = properties.isEnabled();
+        this.percentile = properties.getPercentile();
+        this.minDelayNanos = properties.getMinDelay().toNanos();
+        this.latencies = new LatencyWindow(properties.getWindowSize());
+        this.scheduler = scheduler;
+        this.onHedge = onHedge;
+    }
+
+    <T> CompletableFuture<HttpResponse<T>> send(final Supplier<CompletableFuture<HttpResponse<T>>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        final long delay = latencies.size() < minSamples ? -1 : Math.max(minDelayNanos, latencies.percentile(percentile));
+        final Race<T> race = new Race<>();
+        race.start(timed(call.get()));
+        if (delay >= 0) {
+            final ScheduledFuture<?> timer = scheduler.schedule(() -> {
+                if (!race.result.isDone()) {
+                    onHedge.run();
+                    race.start(timed(call.get()));
+                }
+            }, delay, NANOSECONDS);
+            race.result.whenComplete((response, t) -> timer.cancel(false));
+        }
+        return race.result;
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> timed(final CompletableFuture<HttpResponse<T>> call) {
+        final long startTime = System.nanoTime();
+        call.whenComplete((response, t) -> {
+            if (t == null) {
+                latencies.record(System.nanoTime() - startTime);
+            }
+        });
+        return call;
+    }
+
+    /**
+     * Completes with the first response, or fails when all calls that were started failed.
+     */
+    private static class Race<T> {
+        private final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        private int running;
+
+        void start(final CompletableFuture<HttpResponse<T>> call) {
+            synchronized (this) {
+                running++;
+            }
+            result.whenComplete((response, t) -> call.cancel(true));
+            call.whenComplete((response, t) -> {
+                if (t == null) {
+                    if (!result.complete(response)) {
+                        discard(response);
+                    }
+                    return;
+                }
+                final boolean last;
+                synchronized (this) {
+                    last = --running == 0;
+                }
+                if (last) {
+                    result.completeExceptionally(t);
+                }
+            });
+        }
+
+        private void discard(final HttpResponse<T> response) {
+            if (response.body() instanceof Closeable) {
+                try {
+                    ((Closeable) response.body()).close();
+                } catch (IOException e) {
+                    log.debug("Could not close the body of a discarded response", e);
+                }
+            }
+        }
+    }
+}
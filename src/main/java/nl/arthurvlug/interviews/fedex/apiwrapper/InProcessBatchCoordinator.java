@@ -0,0 +1,87 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Coordinates the wrappers within one JVM, e.g. several AggregationServices in a test.
+ * Results are passed to the subscribers on the thread that publishes them.
+ */
+public class InProcessBatchCoordinator implements BatchCoordinator {
+    private final Map<String, ApiState> apis = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean enqueue(final String api, final Collection<String> keys) {
+        final ApiState state = state(api);
+        synchronized (state) {
+            final boolean wasEmpty = state.queued.isEmpty();
+            for (String key : keys) {
+                if (!state.claimed.contains(key)) {
+                    state.queued.add(key);
+                }
+            }
+            return wasEmpty;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Set<String> claim(final String api, final int minimumSize, final int maximumSize) {
+        final ApiState state = state(api);
+        synchronized (state) {
+            if (state.queued.size() < minimumSize || state.queued.isEmpty()) {
+                return null;
+            }
+            final Set<String> batch = new HashSet<>();
+            final Iterator<String> iterator = state.queued.iterator();
+            while (iterator.hasNext() && batch.size() < maximumSize) {
+                final String key = iterator.next();
+                iterator.remove();
+                batch.add(key);
+            }
+            state.claimed.addAll(batch);
+            return batch;
+        }
+    }
+
+    @Override
+    public int queueSize(final String api) {
+        final ApiState state = state(api);
+        synchronized (state) {
+            return state.queued.size();
+        }
+    }
+
+    @Override
+    public void publish(final String api, final Map<String, String> results) {
+        final ApiState state = state(api);
+        synchronized (state) {
+            state.claimed.removeAll(results.keySet());
+        }
+        state.subscribers.forEach(subscriber -> subscriber.accept(results));
+    }
+
+    @Override
+    public void subscribe(final String api, final Consumer<Map<String, String>> subscriber) {
+        state(api).subscribers.add(subscriber);
+    }
+
+    private ApiState state(final String api) {
+        return apis.computeIfAbsent(api, k -> new ApiState());
+    }
+
+    private static class ApiState {
+        private final Set<String> queued = new LinkedHashSet<>();
+        private final Set<String> claimed = new HashSet<>();
+        private final List<Consumer<Map<String, String>>> subscribers = new CopyOnWriteArrayList<>();
+    }
+}
@@ -0,0 +1,35 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Keys that are waiting to be sent to an API, see {@link BatchQueue} and {@link ClusterKeyQueue}.
+ */
+interface KeyQueue {
+    /**
+     * @return true if the queue was empty before adding the keys
+     */
+    boolean addAll(Collection<String> keys, Priority priority);
+
+    default boolean addAll(final Collection<String> keys) {
+        return addAll(keys, Priority.NORMAL);
+    }
+
+    /**
+     * @return a batch of batchSize keys, or null if there are not enough keys in the queue
+     */
+    @Nullable
+    Set<String> takeFullBatch();
+
+    /**
+     * @return a batch of at most batchSize keys, or null if the queue is empty
+     */
+    @Nullable
+    Set<String> takeBatch();
+
+    boolean isEmpty();
+
+    int size();
+}
@@ -0,0 +1,42 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles of the latest call latencies. The sorted copy is only refreshed every few samples.
+ */
+class LatencyWindow {
+    private static final int refreshInterval = 16;
+
+    private final long[] samples;
+    private long count;
+    private long[] sorted = new long[0];
+
+    LatencyWindow(final int size) {
+        this.samples = new long[size];
+    }
+
+    synchronized void record(final long nanos) {
+        samples[(int) (count % samples.length)] = nanos;
+        count++;
+        if (count % refreshInterval == 0 || count < refreshInterval) {
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+            Arrays.sort(sorted);
+        }
+    }
+
+    /**
+     * @return the latency in nanoseconds below which the given fraction of the samples is, or -1 without samples
+     */
+    synchronized long percentile(final double percentile) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    synchronized int size() {
+        return sorted.length;
+    }
+}
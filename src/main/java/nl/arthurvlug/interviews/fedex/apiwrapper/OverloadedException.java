@@ -0,0 +1,21 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown for a request with new keys for an API whose wrapper has reached its admission limits,
+ * when the API is configured to reject requests instead of degrading them.
+ */
+@Getter
+public class OverloadedException extends RuntimeException {
+    private final String api;
+    private final Duration retryAfter;
+
+    public OverloadedException(final String api, final Duration retryAfter) {
+        super("Too many pending keys for " + api);
+        this.api = api;
+        this.retryAfter = retryAfter;
+    }
+}
@@ -1,19 +1,19 @@
 package nl.arthurvlug.interviews.fedex.apiwrapper;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import io.micrometer.core.instrument.MeterRegistry;
 
-import java.util.Map;
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
 
 public class PricingApiWrapper extends ApiWrapper<Float> {
-    private static final TypeReference<Map<String, Float>> typeReference = new TypeReference<>() {};
+    private static final JavaType valueType = TypeFactory.defaultInstance().constructType(Float.class);
 
-    @Override
-    protected TypeReference<Map<String, Float>> getTypeReference() {
-        return typeReference;
-    }
-
-    @Override
-    protected String getPath() {
-        return "/pricing";
+    public PricingApiWrapper(final ExecutorService executor,
+                             final ApiProperties properties,
+                             final MeterRegistry meterRegistry,
+                             @Nullable final BatchCoordinator coordinator) {
+        super("/pricing", valueType, executor, properties, meterRegistry, coordinator);
     }
 }
@@ -0,0 +1,16 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+/**
+ * Lane in which the keys of a request wait for their batch.
+ */
+public enum Priority {
+    /**
+     * For interactive callers: the keys go before the normal keys in the next batch,
+     * and the queue is flushed after batch.high-priority-linger instead of waiting for a full batch.
+     */
+    HIGH,
+    /**
+     * For everything else, including bulk jobs: the keys are sent in full batches, or when max-linger ran out.
+     */
+    NORMAL
+}
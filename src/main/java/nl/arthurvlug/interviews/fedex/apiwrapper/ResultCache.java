@@ -0,0 +1,152 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Caches the results of an API, so cached keys don't have to wait for a batch.
+ * Only values that the API actually returned are cached: failed calls and unknown keys are requested again.
+ * Guava evicts the least recently used entries when the cache is full.
+ *
+ * With a snapshot file, the entries are written to disk periodically and loaded again at startup,
+ * each with the expiry time it got when it was received from the API.
+ */
+@Slf4j
+class ResultCache<O> {
+    @Nullable
+    private final Cache<String, Cached<O>> cache;
+    private final long ttlMillis;
+    @Nullable
+    private final Path snapshotFile;
+    private final ObjectMapper objectMapper;
+    private final JavaType valueType;
+
+    ResultCache(final ApiProperties.Cache properties, final ObjectMapper objectMapper, final JavaType valueType) {
+        this.ttlMillis = properties.getTtl().toMillis();
+        this.objectMapper = objectMapper;
+        this.valueType = valueType;
+        if (properties.getMaxEntries() <= 0 || properties.getTtl().isZero()) {
+            this.cache = null;
+            this.snapshotFile = null;
+        } else {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumSize(properties.getMaxEntries())
+                    .expireAfterWrite(properties.getTtl())
+                    .recordStats()
+                    .build();
+            this.snapshotFile = properties.getSnapshotFile();
+        }
+    }
+
+    @Nullable
+    O get(final String key) {
+        if (cache == null) {
+            return null;
+        }
+        final Cached<O> cached = cache.getIfPresent(key);
+        if (cached == null) {
+            return null;
+        }
+        // Entries from a snapshot expire at their original time, which is before Guava expires them
+        if (cached.expiresAtMillis <= System.currentTimeMillis()) {
+            cache.invalidate(key);
+            return null;
+        }
+        return cached.value;
+    }
+
+    void put(final String key, @Nullable final O value) {
+        if (cache != null && value != null) {
+            cache.put(key, new Cached<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    boolean hasSnapshot() {
+        return snapshotFile != null;
+    }
+
+    /**
+     * Writes the entries that are not expired to the snapshot file. A failure is logged, and the previous snapshot stays.
+     * Synchronized, so a periodic write and the write at shutdown don't write the same file.
+     */
+    synchronized void saveSnapshot() {
+        if (cache == null || snapshotFile == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final List<CacheSnapshot.Entry> entries = new ArrayList<>((int) cache.size());
+        try {
+            for (Map.Entry<String, Cached<O>> entry : cache.asMap().entrySet()) {
+                final Cached<O> cached = entry.getValue();
+                if (cached.expiresAtMillis > now) {
+                    entries.add(new CacheSnapshot.Entry(entry.getKey(), cached.expiresAtMillis, objectMapper.writeValueAsBytes(cached.value)));
+                }
+            }
+            CacheSnapshot.write(snapshotFile, entries);
+        } catch (IOException e) {
+            log.warn("Could not write the cache snapshot {}", snapshotFile, e);
+        }
+    }
+
+    /**
+     * Fills the cache with the entries of the snapshot file that are not expired yet.
+     * A missing or unreadable snapshot is logged, and the cache starts empty.
+     *
+     * @param intern applied to every value, like to the values that are parsed from a response
+     */
+    void loadSnapshot(final UnaryOperator<O> intern) {
+        if (cache == null || snapshotFile == null) {
+            return;
+        }
+        try {
+            final List<CacheSnapshot.Entry> entries = CacheSnapshot.read(snapshotFile, System.currentTimeMillis());
+            for (CacheSnapshot.Entry entry : entries) {
+                final O value = objectMapper.readValue(entry.value, valueType);
+                if (value != null) {
+                    cache.put(entry.key, new Cached<>(intern.apply(value), entry.expiresAtMillis));
+                }
+            }
+            log.info("Loaded {} cached results from {}", entries.size(), snapshotFile);
+        } catch (IOException e) {
+            log.warn("Could not load the cache snapshot {}", snapshotFile, e);
+        }
+    }
+
+    void bindMetrics(final MeterRegistry meterRegistry, final String path) {
+        if (cache != null) {
+            GuavaCacheMetrics.monitor(meterRegistry, cache, "aggregation.api.cache", "api", path);
+        }
+    }
+
+    CacheStats stats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    private static final class Cached<O> {
+        private final O value;
+        private final long expiresAtMillis;
+
+        private Cached(final O value, final long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
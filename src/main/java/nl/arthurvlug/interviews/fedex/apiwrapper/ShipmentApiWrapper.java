@@ -1,18 +1,21 @@
 package nl.arthurvlug.interviews.fedex.apiwrapper;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import io.micrometer.core.instrument.MeterRegistry;
 
+import javax.annotation.Nullable;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 public class ShipmentApiWrapper extends ApiWrapper<List<String>> {
-    private static final TypeReference<Map<String, List<String>>> typeReference = new TypeReference<>() {};
+    // Built without a TypeReference, whose generic superclass would need a reflection hint in a native image
+    private static final JavaType valueType = TypeFactory.defaultInstance().constructCollectionType(List.class, String.class);
 
-    protected TypeReference<Map<String, List<String>>> getTypeReference() {
-        return typeReference;
-    }
-
-    protected String getPath() {
-        return "/shipments";
+    public ShipmentApiWrapper(final ExecutorService executor,
+                              final ApiProperties properties,
+                              final MeterRegistry meterRegistry,
+                              @Nullable final BatchCoordinator coordinator) {
+        super("/shipments", valueType, executor, properties, meterRegistry, coordinator);
     }
 }
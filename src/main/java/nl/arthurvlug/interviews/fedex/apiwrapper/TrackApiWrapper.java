@@ -1,19 +1,29 @@
 package nl.arthurvlug.interviews.fedex.apiwrapper;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import io.micrometer.core.instrument.MeterRegistry;
 
-import java.util.Map;
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
 
 public class TrackApiWrapper extends ApiWrapper<String> {
-    private static final TypeReference<Map<String, String>> typeReference = new TypeReference<>() {};
+    private static final JavaType valueType = TypeFactory.defaultInstance().constructType(String.class);
+    // There are only a few statuses, so every response and cache entry can share the same instances
+    private static final Interner<String> statuses = Interners.newWeakInterner();
 
-    @Override
-    protected TypeReference<Map<String, String>> getTypeReference() {
-        return typeReference;
+    public TrackApiWrapper(final ExecutorService executor,
+                           final ApiProperties properties,
+                           final MeterRegistry meterRegistry,
+                           @Nullable final BatchCoordinator coordinator) {
+        super("/track", valueType, executor, properties, meterRegistry, coordinator);
     }
 
+    @Nullable
     @Override
-    protected String getPath() {
-        return "/track";
+    protected String intern(@Nullable final String value) {
+        return value == null ? null : statuses.intern(value);
     }
 }
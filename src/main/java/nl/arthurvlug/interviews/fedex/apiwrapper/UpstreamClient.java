@@ -0,0 +1,54 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static nl.arthurvlug.interviews.fedex.ExecutionMode.daemonThreadFactory;
+
+/**
+ * HTTP client of a single API. Every API has its own connection pool and threads,
+ * so a slow API doesn't hold up the connections to the others.
+ */
+@Slf4j
+class UpstreamClient implements AutoCloseable {
+    private final String baseUrl;
+    private final HttpRequest.Builder requestTemplate;
+    private final ExecutorService executor;
+    private final HttpClient httpClient;
+
+    UpstreamClient(final String name, final ApiProperties.Client properties) {
+        this.baseUrl = properties.getBaseUrl();
+        this.requestTemplate = HttpRequest.newBuilder()
+                .GET()
+                .timeout(properties.getReadTimeout());
+        if (properties.isBinaryFormats()) {
+            requestTemplate.header("Accept", UpstreamFormat.binaryAccept);
+        }
+        this.executor = Executors.newCachedThreadPool(daemonThreadFactory("http-" + name + "-"));
+        this.httpClient = HttpClient.newBuilder()
+                .version(properties.getVersion())
+                .connectTimeout(properties.getConnectTimeout())
+                .executor(executor)
+                .build();
+    }
+
+    <T> CompletableFuture<HttpResponse<T>> get(final String pathAndQuery, final HttpResponse.BodyHandler<T> bodyHandler) {
+        log.debug("Calling {}", pathAndQuery);
+        final HttpRequest request = requestTemplate.copy()
+                .uri(URI.create(baseUrl + pathAndQuery))
+                .build();
+        return httpClient.sendAsync(request, bodyHandler);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,44 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.net.http.HttpResponse;
+import java.util.Locale;
+
+/**
+ * The formats in which an API can answer, recognized by the Content-Type of its response.
+ * Smile and CBOR encode the same values as JSON, but in binary, which is smaller and faster to parse.
+ */
+enum UpstreamFormat {
+    JSON("application/json", new ObjectMapper()),
+    SMILE("application/x-jackson-smile", new ObjectMapper(new SmileFactory())),
+    CBOR("application/cbor", new ObjectMapper(new CBORFactory()));
+
+    /**
+     * The Accept header of APIs with client.binary-formats, which prefers the binary formats but still takes JSON.
+     */
+    static final String binaryAccept = "application/x-jackson-smile, application/cbor;q=0.9, application/json;q=0.8";
+
+    final String mediaType;
+    final ObjectMapper objectMapper;
+
+    UpstreamFormat(final String mediaType, final ObjectMapper objectMapper) {
+        this.mediaType = mediaType;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return the format of the Content-Type, or JSON when there is none or it's another type
+     */
+    static UpstreamFormat of(final HttpResponse<?> response) {
+        final String contentType = response.headers().firstValue("Content-Type").orElse("").toLowerCase(Locale.ROOT);
+        for (UpstreamFormat format : values()) {
+            if (contentType.startsWith(format.mediaType)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+}
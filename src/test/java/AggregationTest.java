@@ -1,10 +1,13 @@
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.matching.UrlPattern;
 import com.google.common.collect.ImmutableMap;
 import nl.arthurvlug.interviews.fedex.Aggregation;
 import nl.arthurvlug.interviews.fedex.Application;
+import nl.arthurvlug.interviews.fedex.apiwrapper.ApiProperties;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -19,18 +22,23 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static java.time.Duration.ZERO;
-import static nl.arthurvlug.interviews.fedex.apiwrapper.ApiWrapper.timeout;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class AggregationTest {
     final String hostname = "http://localhost:8081";
     final int schedulerPeriod = 5000; // ms
+    final Duration timeout = new ApiProperties().getClient().getReadTimeout();
 
     private final WireMockServer wireMockServer = new WireMockServer(8080);
     private final HttpClient httpClient = HttpClient.newHttpClient();
@@ -42,6 +50,7 @@ public class AggregationTest {
         applicationContext = Application.startApplication(new String[0]);
         wireMockServer.resetAll();
         wireMockServer.start();
+        warmUpWireMock();
     }
 
     @AfterEach
@@ -133,6 +142,238 @@ public class AggregationTest {
 
     }
 
+    @Test
+    public void testSameIdsConcurrently_singleUpstreamCall() throws Exception {
+        stubShipments(TestData.smallShipmentsMap, 200, TestData.smallShipmentIds, ZERO);
+
+        // Without deduplication, three requests would fill a batch of 5 with only 2 distinct ids
+        final List<CompletableFuture<Aggregation>> aggregations = IntStream.range(0, 3)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return aggregationCall(null, null, TestData.smallShipmentIds);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }))
+                .collect(Collectors.toList());
+
+        for (CompletableFuture<Aggregation> aggregation : aggregations) {
+            assertThat(aggregation.get()).isEqualTo(toAggregation(TestData.smallShipmentsMap, Map.of(), Map.of()));
+        }
+        wireMockServer.verify(1, getRequestedFor(urlPathEqualTo("/shipments")));
+    }
+
+    @Test
+    public void testManyIds_allBatchesImmediately() throws Exception {
+        final Map<String, List<String>> shipmentsMap = IntStream.range(100, 115)
+                .boxed()
+                .collect(Collectors.toMap(String::valueOf, i -> List.of("box")));
+        // The ids are spread over 3 batches in no particular order, so every batch gets all results
+        stubGet(urlPathEqualTo("/shipments"), shipmentsMap, 200, ZERO);
+
+        long startTime = System.currentTimeMillis();
+        final Aggregation aggregation = aggregationCall(null, null, String.join(",", shipmentsMap.keySet()));
+        long endTime = System.currentTimeMillis();
+
+        assertThat(endTime - startTime).isLessThan(schedulerPeriod/2);
+        assertThat(aggregation).isEqualTo(toAggregation(shipmentsMap, Map.of(), Map.of()));
+        wireMockServer.verify(3, getRequestedFor(urlPathEqualTo("/shipments")));
+    }
+
+    @Test
+    public void testCachedPricing_immediately() throws Exception {
+        stubPricing(TestData.smallPricingMap, 200, TestData.smallPricingIds);
+        aggregationCall(TestData.smallPricingIds, null, null);
+
+        long startTime = System.currentTimeMillis();
+        final Aggregation aggregation = aggregationCall(TestData.smallPricingIds, null, null);
+        long endTime = System.currentTimeMillis();
+
+        assertThat(endTime - startTime).isLessThan(schedulerPeriod/2);
+        assertThat(aggregation).isEqualTo(toAggregation(Map.of(), Map.of(), TestData.smallPricingMap));
+        wireMockServer.verify(1, getRequestedFor(urlPathEqualTo("/pricing")));
+    }
+
+    @Test
+    public void testStreamingAggregation() throws Exception {
+        stubShipments(TestData.smallShipmentsMap, 200, TestData.smallShipmentIds, ZERO);
+        stubTrack(TestData.smallTrackMap, 200, TestData.smallTrackIds);
+        stubPricing(null, 503, TestData.smallPricingIds);
+
+        final HttpRequest request = HttpRequest.newBuilder()
+                .uri(new URI(hostname + "/aggregation/stream?shipments=" + TestData.smallShipmentIds + "&track=" + TestData.smallTrackIds + "&pricing=" + TestData.smallPricingIds))
+                .GET()
+                .header("Accept", MediaType.APPLICATION_NDJSON_VALUE)
+                .build();
+        final List<String> lines = httpClient.send(request, HttpResponse.BodyHandlers.ofLines()).body()
+                .collect(Collectors.toList());
+
+        // Every line is a partial aggregation with a single result
+        final Map<String, List<String>> shipments = new HashMap<>();
+        final Map<String, String> track = new HashMap<>();
+        final Map<String, Float> pricing = new HashMap<>();
+        for (String line : lines) {
+            final Aggregation partial = objectMapper.readValue(line, Aggregation.class);
+            if (partial.getShipments() != null) { shipments.putAll(partial.getShipments()); }
+            if (partial.getTrack() != null) { track.putAll(partial.getTrack()); }
+            if (partial.getPricing() != null) { pricing.putAll(partial.getPricing()); }
+        }
+        assertThat(lines).hasSize(6);
+        assertThat(toAggregation(shipments, track, pricing)).isEqualTo(toAggregation(
+                TestData.smallShipmentsMap,
+                TestData.smallTrackMap,
+                TestData.nullSmallPricingMap()
+        ));
+    }
+
+    @Test
+    public void testDeadline_flushesEarly() throws Exception {
+        stubTrack(TestData.smallTrackMap, 200, TestData.smallTrackIds);
+
+        long startTime = System.currentTimeMillis();
+        final Aggregation aggregation = aggregationCall("track=" + TestData.smallTrackIds + "&timeout=1000");
+        long endTime = System.currentTimeMillis();
+
+        assertThat(endTime - startTime).isLessThan(schedulerPeriod/2);
+        assertThat(aggregation).isEqualTo(toAggregation(Map.of(), TestData.smallTrackMap, Map.of()));
+    }
+
+    @Test
+    public void testHighPriority_flushesRightAway() throws Exception {
+        stubTrack(TestData.smallTrackMap, 200, TestData.smallTrackIds);
+
+        long startTime = System.currentTimeMillis();
+        final Aggregation aggregation = aggregationCall("track=" + TestData.smallTrackIds + "&priority=high");
+        long endTime = System.currentTimeMillis();
+
+        assertThat(endTime - startTime).isLessThan(schedulerPeriod/2);
+        assertThat(aggregation).isEqualTo(toAggregation(Map.of(), TestData.smallTrackMap, Map.of()));
+    }
+
+    @Test
+    public void testUnchangedAggregation_notModified() throws Exception {
+        stubTrack(TestData.smallTrackMap, 200, TestData.smallTrackIds);
+        final URI uri = new URI(hostname + "/aggregation?track=" + TestData.smallTrackIds + "&priority=high");
+
+        final HttpResponse<String> first = httpClient.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+        final String etag = first.headers().firstValue("ETag").orElseThrow();
+        final HttpResponse<String> second = httpClient.send(HttpRequest.newBuilder(uri).GET().header("If-None-Match", etag).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertThat(first.statusCode()).isEqualTo(200);
+        assertThat(second.statusCode()).isEqualTo(304);
+        assertThat(second.headers().firstValue("ETag")).contains(etag);
+        assertThat(second.body()).isEmpty();
+    }
+
+    @Test
+    public void testSmile_upstreamAndResponse() throws Exception {
+        final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+        wireMockServer.stubFor(WireMock.get(urlPathEqualTo("/track"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/x-jackson-smile")
+                        .withBody(smileMapper.writeValueAsBytes(TestData.smallTrackMap))));
+
+        final HttpRequest request = HttpRequest.newBuilder()
+                .uri(new URI(hostname + "/aggregation?track=" + TestData.smallTrackIds + "&priority=high"))
+                .GET()
+                .header("Accept", "application/x-jackson-smile, application/json;q=0.5")
+                .build();
+        final HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.headers().firstValue("Content-Type")).contains("application/x-jackson-smile");
+        assertThat(smileMapper.readValue(response.body(), Aggregation.class))
+                .isEqualTo(toAggregation(Map.of(), TestData.smallTrackMap, Map.of()));
+    }
+
+    @Test
+    public void testBulkPost_streamsResults() throws Exception {
+        stubGet(urlPathEqualTo("/track"), TestData.smallTrackMap, 200, ZERO);
+
+        final HttpRequest request = HttpRequest.newBuilder()
+                .uri(new URI(hostname + "/aggregation?priority=high"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"track\":[\"111\"]}\n{\"track\":\"222\",\"unknown\":[\"1\"]}\n"))
+                .header("Content-Type", MediaType.APPLICATION_NDJSON_VALUE)
+                .header("Accept", MediaType.APPLICATION_NDJSON_VALUE)
+                .build();
+        final HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        final Map<String, String> track = new HashMap<>();
+        for (String line : response.body().split("\n")) {
+            track.putAll(objectMapper.readValue(line, Aggregation.class).getTrack());
+        }
+        assertThat(track).isEqualTo(TestData.smallTrackMap);
+    }
+
+    @Test
+    public void testDeadline_slowApi_responseWithNulls() throws Exception {
+        // Slower than the deadline, but within the API timeout
+        stubShipments(TestData.smallShipmentsMap, 200, TestData.smallShipmentIds, timeout.minusMillis(50));
+
+        long startTime = System.currentTimeMillis();
+        final Aggregation aggregation = aggregationCall("shipments=" + TestData.smallShipmentIds + "&timeout=100");
+        long endTime = System.currentTimeMillis();
+
+        assertThat(endTime - startTime).isLessThan(schedulerPeriod/2);
+        assertThat(aggregation).isEqualTo(toAggregation(TestData.nullSmallShipmentsMap(), Map.of(), Map.of()));
+    }
+
+    @Test
+    public void testFailingApi_circuitOpens() throws Exception {
+        final String ids = "1,2,3,4,5";
+        stubGet("/track?q=" + ids, null, 503, ZERO);
+        for (int i = 0; i < 5; i++) {
+            aggregationCall(null, ids, null);
+        }
+
+        long startTime = System.currentTimeMillis();
+        final Aggregation aggregation = aggregationCall(null, ids, null);
+        long endTime = System.currentTimeMillis();
+
+        assertThat(endTime - startTime).isLessThan(schedulerPeriod/2);
+        assertThat(aggregation.getTrack()).containsOnlyKeys("1", "2", "3", "4", "5");
+        assertThat(aggregation.getTrack().values()).containsOnlyNulls();
+        wireMockServer.verify(5, getRequestedFor(urlPathEqualTo("/track")));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        stubTrack(TestData.smallTrackMap, 200, TestData.smallTrackIds);
+        aggregationCall(null, TestData.smallTrackIds, null);
+        aggregationCall(null, TestData.smallTrackIds, null);
+
+        final HttpRequest request = HttpRequest.newBuilder()
+                .uri(new URI(hostname + "/actuator/prometheus"))
+                .GET()
+                .build();
+        final String metrics = httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+
+        assertThat(metrics).contains("aggregation_api_keys_total{api=\"/track\",source=\"queued\",} 2.0");
+        assertThat(metrics).contains("aggregation_api_keys_total{api=\"/track\",source=\"cache\",} 2.0");
+        assertThat(metrics).contains("aggregation_api_calls_seconds_count{api=\"/track\",outcome=\"success\",} 1.0");
+        assertThat(metrics).contains("aggregation_api_results_total{api=\"/track\",result=\"found\",} 2.0");
+        assertThat(metrics).contains("aggregation_api_queue_size{api=\"/track\",} 0.0");
+    }
+
+    /**
+     * The first requests that WireMock handles in a JVM are slow, which can exceed the API timeout.
+     */
+    private void warmUpWireMock() {
+        wireMockServer.stubFor(WireMock.get("/warmup").willReturn(aResponse().withStatus(200).withBody("{}")));
+        for (int i = 0; i < 5; i++) {
+            try {
+                final HttpRequest request = HttpRequest.newBuilder()
+                        .uri(new URI(wireMockServer.baseUrl() + "/warmup"))
+                        .GET()
+                        .build();
+                httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     private Aggregation toAggregation(final Map<String, List<String>> shipmentsMap,
                                       final Map<String, String> trackMap,
                                       final Map<String, Float> pricingMap) {
@@ -152,7 +393,11 @@ public class AggregationTest {
     }
 
     private void stubGet(final String url, final Object responseBody, final int status, final Duration delay) throws JsonProcessingException {
-        wireMockServer.stubFor(WireMock.get(url)
+        stubGet(WireMock.urlEqualTo(url), responseBody, status, delay);
+    }
+
+    private void stubGet(final UrlPattern urlPattern, final Object responseBody, final int status, final Duration delay) throws JsonProcessingException {
+        wireMockServer.stubFor(WireMock.get(urlPattern)
                 .willReturn(aResponse()
                         .withStatus(status)
                         .withBody(objectMapper.writeValueAsString(responseBody))
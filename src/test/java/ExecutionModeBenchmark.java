@@ -0,0 +1,93 @@
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import nl.arthurvlug.interviews.fedex.Application;
+import nl.arthurvlug.interviews.fedex.ExecutionMode;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * Fires a burst of concurrent requests at the application in every {@link ExecutionMode} and prints
+ * the wall clock time and the peak number of platform threads.
+ * Not a unit test: run the main method, on Java 21 to include {@link ExecutionMode#VIRTUAL}.
+ * The number of requests can be passed as the first argument (default: 10000).
+ * Client and server run in the same JVM, so this needs about two file descriptors per request (see ulimit -n).
+ */
+public class ExecutionModeBenchmark {
+    private static final String hostname = "http://localhost:8081";
+    private static final int upstreamLatency = 50; // ms
+
+    public static void main(String[] args) throws Exception {
+        final int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        // Close the client connections of a run before the next run starts
+        System.setProperty("jdk.httpclient.keepalive.timeout", "1");
+
+        final WireMockServer wireMockServer = new WireMockServer(options().port(8080).containerThreads(200));
+        wireMockServer.start();
+        for (String path : List.of("shipments", "track", "pricing")) {
+            wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/" + path))
+                    .willReturn(aResponse()
+                            .withStatus(200)
+                            .withBody("{}")
+                            .withFixedDelay(upstreamLatency)));
+        }
+
+        try {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                if (mode == ExecutionMode.VIRTUAL && Runtime.version().feature() < 21) {
+                    System.out.println(mode + ": skipped, requires Java 21");
+                    continue;
+                }
+                run(mode, requests);
+            }
+        } finally {
+            wireMockServer.stop();
+        }
+    }
+
+    private static void run(final ExecutionMode mode, final int requests) throws InterruptedException {
+        final ConfigurableApplicationContext applicationContext = Application.startApplication(new String[] {
+                "--aggregation.execution-mode=" + mode,
+                "--server.tomcat.max-connections=" + (requests + 100),
+                "--server.tomcat.accept-count=" + requests,
+                "--logging.level.root=WARN"
+        });
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        try {
+            final HttpClient httpClient = HttpClient.newHttpClient();
+            threadMXBean.resetPeakThreadCount();
+            final long startTime = System.currentTimeMillis();
+
+            final List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                final HttpRequest request = HttpRequest.newBuilder()
+                        .uri(URI.create(hostname + "/aggregation?shipments=" + i + "&track=" + i + "&pricing=C" + i))
+                        .GET()
+                        .build();
+                responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+            }
+            final long failures = responses.stream()
+                    .map(response -> response.handle((r, t) -> t == null && r.statusCode() == 200).join())
+                    .filter(success -> !success)
+                    .count();
+
+            final long duration = System.currentTimeMillis() - startTime;
+            System.out.printf("%s: %d requests in %d ms (%.0f req/s), %d failed, peak threads %d%n",
+                    mode, requests, duration, requests * 1000.0 / duration, failures, threadMXBean.getPeakThreadCount());
+        } finally {
+            applicationContext.close();
+        }
+        Thread.sleep(2000);
+    }
+}
@@ -34,4 +34,11 @@ public class TestData {
             "NL", 2222.5555F,
             "CN", 1111.444F
     );
+
+    static Map<String, Float> nullSmallPricingMap() {
+        final Map<String, Float> map = Maps.newHashMap();
+        map.put("CN", null);
+        map.put("NL", null);
+        return map;
+    }
 }
@@ -0,0 +1,85 @@
+package nl.arthurvlug.interviews.fedex;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.arthurvlug.interviews.fedex.apiwrapper.ApiProperties;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Deadline;
+import nl.arthurvlug.interviews.fedex.apiwrapper.OverloadedException;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Priority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The track queue holds two keys at most, of which bulk requests may fill one.
+ * Its keys are never sent within the test, because the batch never fills up.
+ */
+public class AdmissionControlTest {
+    private final ExecutorService executor = ExecutionMode.PLATFORM.newExecutor("test-");
+    private AggregationService aggregationService;
+
+    @AfterEach
+    public void afterEach() {
+        aggregationService.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOverloaded_degrade_newKeysAreNull() throws Exception {
+        aggregationService = newService(ApiProperties.Admission.Overload.DEGRADE);
+        final CompletableFuture<Aggregation> first = aggregationService.aggregateAsync(Set.of(), Set.of("1", "2"), Set.of());
+
+        final Aggregation second = aggregationService.aggregateAsync(Set.of(), Set.of("3", "4"), Set.of()).get(1, TimeUnit.SECONDS);
+        // Keys that are already pending are still waited for
+        final CompletableFuture<Aggregation> third = aggregationService.aggregateAsync(Set.of(), Set.of("2", "5"), Set.of());
+
+        assertThat(first).isNotDone();
+        assertThat(third).isNotDone();
+        assertThat(second.getTrack()).containsOnlyKeys("3", "4");
+        assertThat(second.getTrack().values()).containsOnlyNulls();
+    }
+
+    @Test
+    public void testOverloaded_reject_throwsBeforeQueueing() {
+        aggregationService = newService(ApiProperties.Admission.Overload.REJECT);
+        aggregationService.aggregateAsync(Set.of(), Set.of("1", "2"), Set.of());
+
+        assertThatThrownBy(() -> aggregationService.aggregateAsync(Set.of(), Set.of("3"), Set.of()))
+                .isInstanceOf(OverloadedException.class)
+                .hasFieldOrPropertyWithValue("api", "/track");
+        // Other APIs are not affected
+        assertThat(aggregationService.aggregateAsync(Set.of(), Set.of(), Set.of("NL"))).isNotNull();
+    }
+
+    @Test
+    public void testBulkAlongsideInteractive_interactiveStillAdmitted() throws Exception {
+        aggregationService = newService(ApiProperties.Admission.Overload.REJECT);
+        final BulkAggregation bulk = aggregationService.bulkAggregation(Deadline.after(Duration.ofSeconds(5)), Priority.NORMAL,
+                (section, key, value) -> { });
+        // Half of the two queued keys is the share of bulk requests
+        bulk.add("track", Set.of("1"));
+        final CompletableFuture<Void> nextChunk = CompletableFuture.runAsync(() -> bulk.add("track", Set.of("2")), executor);
+
+        final CompletableFuture<Aggregation> interactive = aggregationService.aggregateAsync(Set.of(), Set.of("3"), Set.of());
+
+        // The interactive key is queued instead of rejected, and the bulk request waits for room
+        assertThat(interactive).isNotDone();
+        assertThat(nextChunk).isNotDone();
+    }
+
+    private AggregationService newService(final ApiProperties.Admission.Overload overload) {
+        final AggregationProperties properties = new AggregationProperties();
+        final ApiProperties track = properties.getApi("track");
+        track.getAdmission().setMaxQueuedKeys(2);
+        track.getAdmission().setOverload(overload);
+        track.getBatch().setMaxLinger(Duration.ofMinutes(1));
+        return new AggregationService(executor, properties, new SimpleMeterRegistry(), null);
+    }
+}
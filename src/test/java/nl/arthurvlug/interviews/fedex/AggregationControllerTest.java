@@ -0,0 +1,44 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.arthurvlug.interviews.fedex.apiwrapper.OverloadedException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregationControllerTest {
+    @Test
+    public void testSplitString() {
+        assertThat(AggregationController.splitString("NL,CN,NL")).containsExactlyInAnyOrder("NL", "CN");
+        assertThat(AggregationController.splitString("111")).containsExactly("111");
+    }
+
+    @Test
+    public void testSplitString_skipsEmptyIds() {
+        assertThat(AggregationController.splitString(null)).isEmpty();
+        assertThat(AggregationController.splitString("")).isEmpty();
+        assertThat(AggregationController.splitString(",111,,222,")).containsExactlyInAnyOrder("111", "222");
+    }
+
+    @Test
+    public void testNegotiateFormat() {
+        assertThat(ResponseFormat.negotiate(null)).isEqualTo(ResponseFormat.JSON);
+        assertThat(ResponseFormat.negotiate("*/*")).isEqualTo(ResponseFormat.JSON);
+        assertThat(ResponseFormat.negotiate("application/cbor")).isEqualTo(ResponseFormat.CBOR);
+        assertThat(ResponseFormat.negotiate("application/json;q=0.5, application/x-jackson-smile")).isEqualTo(ResponseFormat.SMILE);
+    }
+
+    @Test
+    public void testOverloaded_serviceUnavailableWithRetryAfter() {
+        final AggregationController controller = new AggregationController(null, new ObjectMapper(), new AggregationProperties(), null);
+
+        final ResponseEntity<Void> response = controller.overloaded(new OverloadedException("/track", Duration.ofMillis(1500)));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(response.getHeaders().getFirst("Retry-After")).isEqualTo("2");
+    }
+}
@@ -0,0 +1,20 @@
+package nl.arthurvlug.interviews.fedex;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregationRuntimeHintsTest {
+    @Test
+    public void testSectionSerializers_haveHints() {
+        final RuntimeHints hints = new RuntimeHints();
+        new AggregationRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        assertThat(RuntimeHintsPredicates.reflection().onType(SectionMap.Serializer.class).withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(FloatSectionMap.Serializer.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(Aggregation.class)).accepts(hints);
+    }
+}
@@ -0,0 +1,55 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BulkRequestReaderTest {
+    @Test
+    public void testJsonObject_chunksPerSection() throws IOException {
+        final List<Map.Entry<String, Set<String>>> chunks = read("{\"track\":[\"1\",\"2\",\"3\"],\"pricing\":[\"NL\"]}");
+
+        assertThat(chunks).containsExactlyInAnyOrder(
+                Map.entry("track", Set.of("1", "2")),
+                Map.entry("track", Set.of("3")),
+                Map.entry("pricing", Set.of("NL")));
+    }
+
+    @Test
+    public void testNdjson_everyLineIsPassedOn() throws IOException {
+        final List<Map.Entry<String, Set<String>>> chunks = read("{\"shipments\":\"1\"}\n{\"shipments\":[2]}\n");
+
+        assertThat(chunks).containsExactly(
+                Map.entry("shipments", Set.of("1")),
+                Map.entry("shipments", Set.of("2")));
+    }
+
+    @Test
+    public void testInvalidBody_idsBeforeTheErrorArePassedOn() {
+        final List<Map.Entry<String, Set<String>>> chunks = new ArrayList<>();
+
+        assertThatThrownBy(() -> read("{\"track\":[\"1\"]}\n[\"2\"]", chunks)).isInstanceOf(IOException.class);
+        assertThat(chunks).containsExactly(Map.entry("track", Set.of("1")));
+    }
+
+    private static List<Map.Entry<String, Set<String>>> read(final String body) throws IOException {
+        final List<Map.Entry<String, Set<String>>> chunks = new ArrayList<>();
+        read(body, chunks);
+        return chunks;
+    }
+
+    private static void read(final String body, final List<Map.Entry<String, Set<String>>> chunks) throws IOException {
+        BulkRequestReader.read(new JsonFactory(), new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), 2,
+                (section, ids) -> chunks.add(Map.entry(section, ids)));
+    }
+}
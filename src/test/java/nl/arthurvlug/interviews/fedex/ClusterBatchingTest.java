@@ -0,0 +1,80 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.arthurvlug.interviews.fedex.apiwrapper.InProcessBatchCoordinator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Two AggregationServices that share a coordinator, like two instances of the service behind a load balancer.
+ */
+public class ClusterBatchingTest {
+    private final WireMockServer wireMockServer = new WireMockServer(8080);
+    private final ExecutorService executor = ExecutionMode.PLATFORM.newExecutor("test-");
+    private InProcessBatchCoordinator coordinator;
+    private AggregationService instance1;
+    private AggregationService instance2;
+
+    @BeforeEach
+    public void beforeEach() {
+        wireMockServer.start();
+        coordinator = new InProcessBatchCoordinator();
+        final AggregationProperties properties = new AggregationProperties();
+        // The first call to WireMock can be slow
+        properties.getApi("track").getClient().setReadTimeout(Duration.ofSeconds(2));
+        instance1 = new AggregationService(executor, properties, new SimpleMeterRegistry(), coordinator);
+        instance2 = new AggregationService(executor, properties, new SimpleMeterRegistry(), coordinator);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        instance1.close();
+        instance2.close();
+        executor.shutdownNow();
+        wireMockServer.stop();
+    }
+
+    @Test
+    public void testKeysOfBothInstances_fillOneBatch() throws Exception {
+        wireMockServer.stubFor(WireMock.get("/track?q=1,2,3,4,5")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody("{\"1\":\"NEW\",\"2\":\"NEW\",\"3\":\"NEW\",\"4\":\"DELIVERED\",\"5\":\"DELIVERED\"}")));
+
+        final CompletableFuture<Aggregation> aggregation1 = instance1.aggregateAsync(Set.of(), Set.of("1", "2", "3"), Set.of());
+        final CompletableFuture<Aggregation> aggregation2 = instance2.aggregateAsync(Set.of(), Set.of("4", "5"), Set.of());
+
+        // Well within the linger time, so the batch was full
+        assertThat(aggregation1.get(2, TimeUnit.SECONDS).getTrack()).containsExactlyInAnyOrderEntriesOf(
+                Map.of("1", "NEW", "2", "NEW", "3", "NEW"));
+        assertThat(aggregation2.get(2, TimeUnit.SECONDS).getTrack()).containsExactlyInAnyOrderEntriesOf(
+                Map.of("4", "DELIVERED", "5", "DELIVERED"));
+        wireMockServer.verify(1, getRequestedFor(urlPathEqualTo("/track")));
+    }
+
+    @Test
+    public void testUndecodablePublishedValue_onlyThatKeyEmpty() throws Exception {
+        final CompletableFuture<Aggregation> aggregation = instance1.aggregateAsync(Set.of(), Set.of("1", "2"), Set.of());
+
+        coordinator.publish("/track", Map.of("1", "\"NEW\"", "2", "{not json"));
+
+        final Map<String, String> track = aggregation.get(2, TimeUnit.SECONDS).getTrack();
+        assertThat(track).containsEntry("1", "NEW");
+        assertThat(track).containsEntry("2", null);
+    }
+}
@@ -0,0 +1,76 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.arthurvlug.interviews.fedex.apiwrapper.ApiProperties;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Deadline;
+import nl.arthurvlug.interviews.fedex.apiwrapper.Priority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * An API that is only declared in the properties, next to the built-in ones.
+ */
+public class ConfiguredApiTest {
+    private final WireMockServer wireMockServer = new WireMockServer(8080);
+    private final ExecutorService executor = ExecutionMode.PLATFORM.newExecutor("test-");
+    private AggregationService aggregationService;
+
+    @BeforeEach
+    public void beforeEach() {
+        wireMockServer.start();
+        final AggregationProperties properties = new AggregationProperties();
+        final ApiProperties stock = properties.getApi("stock");
+        stock.setPath("/v1/stock");
+        stock.setQueryParameter("ids");
+        stock.setValueType("java.lang.Integer");
+        stock.getBatch().setMaxSize(2);
+        // The first call to WireMock can be slow
+        stock.getClient().setReadTimeout(Duration.ofSeconds(2));
+        properties.getApi("pricing").getClient().setReadTimeout(Duration.ofSeconds(2));
+        aggregationService = new AggregationService(executor, properties, new SimpleMeterRegistry(), null);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        aggregationService.close();
+        executor.shutdownNow();
+        wireMockServer.stop();
+    }
+
+    @Test
+    public void testConfiguredApi_hasItsOwnSection() throws Exception {
+        wireMockServer.stubFor(WireMock.get("/v1/stock?ids=A1,B2")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody("{\"A1\":12,\"B2\":0}")));
+
+        final Aggregation aggregation = aggregationService.aggregateAsync(
+                Set.of(), Set.of(), Set.of(),
+                Map.of("stock", Set.of("A1", "B2"), "unknown", Set.of("1")),
+                Deadline.none(),
+                Priority.NORMAL
+        ).get(2, TimeUnit.SECONDS);
+
+        assertThat(aggregationService.configuredApis()).containsExactly("stock");
+        assertThat(aggregation.getSections()).containsOnlyKeys("stock");
+        assertThat(aggregation.getSections().get("stock")).containsExactlyInAnyOrderEntriesOf(Map.of("A1", 12, "B2", 0));
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final String json = objectMapper.writeValueAsString(aggregation);
+        assertThat(json).contains("\"stock\":{");
+        assertThat(objectMapper.readValue(json, Aggregation.class)).isEqualTo(aggregation);
+    }
+}
@@ -0,0 +1,65 @@
+package nl.arthurvlug.interviews.fedex;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResponseCacheTest {
+    @Test
+    public void testKey_ignoresOrder() {
+        assertThat(ResponseCache.key(ResponseFormat.JSON, Set.of("2", "1"), Set.of(), Set.of("NL", "CN"), Map.of("customs", Set.of("b", "a"))))
+                .isEqualTo(ResponseCache.key(ResponseFormat.JSON, Set.of("1", "2"), Set.of(), Set.of("CN", "NL"), Map.of("customs", Set.of("a", "b"))));
+        assertThat(ResponseCache.key(ResponseFormat.JSON, Set.of("1"), Set.of(), Set.of(), Map.of()))
+                .isNotEqualTo(ResponseCache.key(ResponseFormat.JSON, Set.of(), Set.of("1"), Set.of(), Map.of()));
+        assertThat(ResponseCache.key(ResponseFormat.JSON, Set.of("1"), Set.of(), Set.of(), Map.of()))
+                .isNotEqualTo(ResponseCache.key(ResponseFormat.SMILE, Set.of("1"), Set.of(), Set.of(), Map.of()));
+    }
+
+    @Test
+    public void testKey_idsWithSeparators() {
+        // track=b%26pricing%3Dc and track=b&pricing=c%26pricing%3D
+        assertThat(ResponseCache.key(ResponseFormat.JSON, Set.of(), Set.of("b&pricing=c"), Set.of(), Map.of()))
+                .isNotEqualTo(ResponseCache.key(ResponseFormat.JSON, Set.of(), Set.of("b"), Set.of("c&pricing="), Map.of()));
+        assertThat(ResponseCache.key(ResponseFormat.JSON, Set.of(), Set.of("a,b"), Set.of(), Map.of()))
+                .isNotEqualTo(ResponseCache.key(ResponseFormat.JSON, Set.of(), Set.of("a", "b"), Set.of(), Map.of()));
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        final ResponseCache cache = new ResponseCache(new AggregationProperties.ResponseCache());
+        cache.put(List.of("key"), SerializedResponse.of(new byte[0], MediaType.APPLICATION_JSON));
+
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(cache.get(List.of("key"))).isNull();
+    }
+
+    @Test
+    public void testEnabled() {
+        final AggregationProperties.ResponseCache properties = new AggregationProperties.ResponseCache();
+        properties.setTtl(Duration.ofSeconds(1));
+        final ResponseCache cache = new ResponseCache(properties);
+        final SerializedResponse response = SerializedResponse.of(new byte[0], MediaType.APPLICATION_JSON);
+        cache.put(List.of("key"), response);
+
+        assertThat(cache.get(List.of("key"))).isSameAs(response);
+    }
+
+    @Test
+    public void testEtag_matchesIfNoneMatch() {
+        final SerializedResponse response = SerializedResponse.of("{}".getBytes(StandardCharsets.UTF_8), MediaType.APPLICATION_JSON);
+
+        assertThat(response.etag).isEqualTo(SerializedResponse.of("{}".getBytes(StandardCharsets.UTF_8), MediaType.APPLICATION_JSON).etag);
+        assertThat(response.matches(response.etag)).isTrue();
+        assertThat(response.matches("\"other\", " + response.etag)).isTrue();
+        assertThat(response.matches(response.etag.substring(2))).isTrue();
+        assertThat(response.matches("*")).isTrue();
+        assertThat(response.matches("\"other\"")).isFalse();
+    }
+}
@@ -0,0 +1,62 @@
+package nl.arthurvlug.interviews.fedex;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SectionMapTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testFloatSectionMap_writesNullForMissingValues() throws Exception {
+        final Map<String, CompletableFuture<Optional<Float>>> futures = new LinkedHashMap<>();
+        futures.put("NL", completedFuture(Optional.of(1111.5F)));
+        futures.put("CN", completedFuture(Optional.empty()));
+
+        final FloatSectionMap map = FloatSectionMap.of(futures);
+
+        assertThat(objectMapper.writeValueAsString(map)).isEqualTo("{\"NL\":1111.5,\"CN\":null}");
+        final Map<String, Float> expected = new HashMap<>();
+        expected.put("NL", 1111.5F);
+        expected.put("CN", null);
+        assertThat(map).isEqualTo(expected);
+        assertThat(expected).isEqualTo(map);
+    }
+
+    @Test
+    public void testSectionMap_writesValuesWithTheirSerializer() throws Exception {
+        final Map<String, CompletableFuture<Optional<List<String>>>> futures = new LinkedHashMap<>();
+        futures.put("555", completedFuture(Optional.of(ImmutableList.of("box", "pallet"))));
+        futures.put("666", completedFuture(Optional.empty()));
+
+        final SectionMap<List<String>> map = SectionMap.of(futures);
+
+        assertThat(objectMapper.writeValueAsString(map)).isEqualTo("{\"555\":[\"box\",\"pallet\"],\"666\":null}");
+        assertThat(map.get("555")).containsExactly("box", "pallet");
+        assertThat(map).containsOnlyKeys("555", "666");
+    }
+
+    @Test
+    public void testAggregation_roundTrip() throws Exception {
+        final Map<String, CompletableFuture<Optional<String>>> track = ImmutableMap.of("111", completedFuture(Optional.of("NEW")));
+        final Aggregation aggregation = new Aggregation(
+                SectionMap.of(ImmutableMap.of()),
+                SectionMap.of(track),
+                FloatSectionMap.of(ImmutableMap.of()));
+
+        final Aggregation parsed = objectMapper.readValue(objectMapper.writeValueAsString(aggregation), Aggregation.class);
+
+        assertThat(parsed).isEqualTo(aggregation);
+    }
+}
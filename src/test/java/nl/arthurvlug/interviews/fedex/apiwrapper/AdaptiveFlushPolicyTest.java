@@ -0,0 +1,58 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveFlushPolicyTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AdaptiveFlushPolicy flushPolicy = new AdaptiveFlushPolicy(
+            5, Duration.ofSeconds(5), Duration.ofSeconds(1), now::get);
+
+    @Test
+    public void testFastArrivals_waitsForTheLatencyTarget() {
+        keysArrive(1000, Duration.ofSeconds(1));
+
+        assertThat(flushPolicy.linger()).isEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void testSlowArrivals_flushesEarlier() {
+        keysArrive(1, Duration.ofSeconds(10));
+
+        // 0.1 keys are expected within the budget of 1s, so the batch is expected to be 2.5% full
+        assertThat(flushPolicy.linger()).isLessThan(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void testUpstreamLatency_isSubtractedFromTheLatencyTarget() {
+        flushPolicy.recordUpstreamLatency(Duration.ofMillis(400));
+        keysArrive(1000, Duration.ofSeconds(1));
+
+        assertThat(flushPolicy.linger()).isEqualTo(Duration.ofMillis(600));
+    }
+
+    @Test
+    public void testMaxLinger_isNeverExceeded() {
+        final AdaptiveFlushPolicy flushPolicy = new AdaptiveFlushPolicy(
+                5, Duration.ofMillis(200), Duration.ofSeconds(1), now::get);
+        flushPolicy.recordKeysQueued(1000);
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+
+        assertThat(flushPolicy.linger()).isEqualTo(Duration.ofMillis(200));
+    }
+
+    private void keysArrive(final int count, final Duration period) {
+        // A few periods, so the moving average converges
+        for (int i = 0; i < 20; i++) {
+            flushPolicy.recordKeysQueued(count);
+            now.addAndGet(period.toNanos());
+            flushPolicy.linger();
+        }
+        flushPolicy.recordKeysQueued(count);
+        now.addAndGet(period.toNanos());
+    }
+}
@@ -0,0 +1,30 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchQueueTest {
+    @Test
+    public void testHighPriorityKeys_goInTheFirstBatch() {
+        final BatchQueue queue = new BatchQueue(3);
+        assertThat(queue.addAll(List.of("1", "2", "3", "4"), Priority.NORMAL)).isTrue();
+        assertThat(queue.addAll(List.of("5", "6"), Priority.HIGH)).isFalse();
+
+        assertThat(queue.takeFullBatch()).containsExactlyInAnyOrder("5", "6", "1");
+        assertThat(queue.takeFullBatch()).containsExactlyInAnyOrder("2", "3", "4");
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testPartialBatch_onlyWhenTakenExplicitly() {
+        final BatchQueue queue = new BatchQueue(3);
+        queue.addAll(List.of("1"), Priority.HIGH);
+
+        assertThat(queue.takeFullBatch()).isNull();
+        assertThat(queue.takeBatch()).containsExactly("1");
+        assertThat(queue.takeBatch()).isNull();
+    }
+}
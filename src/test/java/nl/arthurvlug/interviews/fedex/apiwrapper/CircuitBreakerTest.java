@@ -0,0 +1,73 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(3, Duration.ofSeconds(5), now::get);
+
+    @Test
+    public void testConsecutiveFailures_openTheCircuit() {
+        fail(2);
+        circuitBreaker.record(true);
+        fail(2);
+        assertThat(circuitBreaker.isOpen()).isFalse();
+
+        fail(1);
+        assertThat(circuitBreaker.isOpen()).isTrue();
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void testOpenDurationPassed_singleProbe() {
+        fail(3);
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+
+        assertThat(circuitBreaker.isOpen()).isFalse();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void testSuccessfulProbe_closesTheCircuit() {
+        fail(3);
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        circuitBreaker.tryAcquire();
+        circuitBreaker.record(true);
+
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void testFailedProbe_opensTheCircuitAgain() {
+        fail(3);
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        circuitBreaker.tryAcquire();
+        fail(1);
+
+        assertThat(circuitBreaker.isOpen()).isTrue();
+    }
+
+    @Test
+    public void testZeroThreshold_neverOpens() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(0, Duration.ofSeconds(5), now::get);
+        for (int i = 0; i < 100; i++) {
+            circuitBreaker.record(false);
+        }
+
+        assertThat(circuitBreaker.isOpen()).isFalse();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    private void fail(final int times) {
+        for (int i = 0; i < times; i++) {
+            circuitBreaker.record(false);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package nl.arthurvlug.interviews.fedex.apiwrapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResultCacheTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testSnapshot_isLoadedByANewCache() {
+        final ApiProperties.Cache properties = properties(directory.resolve("snapshots/track.bin"), Duration.ofHours(1));
+        final ResultCache<List<String>> cache = newCache(properties);
+        cache.put("1", List.of("box", "envelope"));
+        cache.put("2", null);
+        cache.saveSnapshot();
+
+        final ResultCache<List<String>> restarted = newCache(properties);
+        restarted.loadSnapshot(UnaryOperator.identity());
+        assertThat(restarted.size()).isEqualTo(1);
+        assertThat(restarted.get("1")).containsExactly("box", "envelope");
+        assertThat(restarted.get("2")).isNull();
+    }
+
+    @Test
+    public void testSnapshot_expiredEntriesAreNotLoaded() throws Exception {
+        final ApiProperties.Cache properties = properties(directory.resolve("track.bin"), Duration.ofMillis(200));
+        final ResultCache<List<String>> cache = newCache(properties);
+        cache.put("1", List.of("box"));
+        cache.saveSnapshot();
+        Thread.sleep(300);
+
+        final ResultCache<List<String>> restarted = newCache(properties(properties.getSnapshotFile(), Duration.ofHours(1)));
+        restarted.loadSnapshot(UnaryOperator.identity());
+        assertThat(restarted.size()).isZero();
+    }
+
+    @Test
+    public void testSnapshot_corruptFileIsIgnored() throws Exception {
+        final Path file = directory.resolve("track.bin");
+        Files.write(file, new byte[]{0x41, 0x47, 0x43, 0x53, 0, 0, 0, 1, 0, 0, 0, 5, 0});
+
+        final ResultCache<List<String>> cache = newCache(properties(file, Duration.ofHours(1)));
+        cache.loadSnapshot(UnaryOperator.identity());
+        assertThat(cache.size()).isZero();
+    }
+
+    private ResultCache<List<String>> newCache(final ApiProperties.Cache properties) {
+        return new ResultCache<>(properties, objectMapper, TypeFactory.defaultInstance().constructCollectionType(List.class, String.class));
+    }
+
+    private static ApiProperties.Cache properties(final Path snapshotFile, final Duration ttl) {
+        final ApiProperties.Cache properties = new ApiProperties.Cache();
+        properties.setMaxEntries(100);
+        properties.setTtl(ttl);
+        properties.setSnapshotFile(snapshotFile);
+        return properties;
+    }
+}